@@ -1,18 +1,33 @@
 package com.hmdp.config;
 
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.interceptor.AdminInterceptor;
 import com.hmdp.interceptor.LoginInterceptor;
 import com.hmdp.interceptor.RefreshTokenInterceptor;
+import com.hmdp.utils.LoginSessionCache;
+import com.hmdp.utils.SignedTokenService;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import javax.annotation.Resource;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Configuration
 public class MvcConfig implements WebMvcConfigurer {
     @Resource
-   private StringRedisTemplate stringRedisTemplate;
+    private LoginSessionCache loginSessionCache;
+    @Resource
+    private SignedTokenService signedTokenService;
+
+    /**
+     * 管理员用户id，逗号分隔，只有这些用户可以访问 /admin/** 运营接口
+     */
+    @Value("${hmdp.admin.user-ids:}")
+    private String adminUserIds;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         // 登录拦截器
@@ -27,8 +42,15 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/user/login"
                 )
                 .order(1);
+        // 管理员拦截器
+        Set<Long> adminIds = StrUtil.split(adminUserIds, ',', true, true).stream()
+                .map(Long::valueOf)
+                .collect(Collectors.toSet());
+        registry.addInterceptor(new AdminInterceptor(adminIds))
+                .addPathPatterns("/admin/**")
+                .order(2);
         // 刷新token拦截器
-        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate))
+        registry.addInterceptor(new RefreshTokenInterceptor(loginSessionCache, signedTokenService))
                 .addPathPatterns("/**")
                 .order(0);
     }
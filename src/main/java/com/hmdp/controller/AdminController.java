@@ -0,0 +1,69 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.IBlogService;
+import com.hmdp.service.IUserService;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * <p>
+ * 运营统计接口，只允许管理员访问
+ * </p>
+ */
+@RestController
+@RequestMapping("/admin")
+public class AdminController {
+
+    @Resource
+    private IUserService userService;
+
+    @Resource
+    private IBlogService blogService;
+
+    /**
+     * 区间内签到的用户数，from和to相同即日活，相差6天即周活
+     */
+    @GetMapping("/sign/active")
+    public Result signActive(
+            @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        return userService.signActive(from, to);
+    }
+
+    @GetMapping("/sign/retention")
+    public Result signRetention(
+            @RequestParam("date") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            @RequestParam(value = "days", defaultValue = "1,7,30") List<Integer> days) {
+        return userService.signRetention(date, days);
+    }
+
+    @GetMapping("/sign/export")
+    public Result signExport(@RequestParam("date") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date) {
+        return userService.signExport(date);
+    }
+
+    /**
+     * 点赞数从Redis刷新到数据库的延迟
+     */
+    @GetMapping("/blog/like-flush")
+    public Result likeFlushStats() {
+        return blogService.queryLikeFlushStats();
+    }
+
+    /**
+     * 最近一次裁剪时统计的关注流数量和内存占用
+     */
+    @GetMapping("/feed/stats")
+    public Result feedStats() {
+        return blogService.queryFeedStats();
+    }
+}
@@ -1,19 +1,16 @@
 package com.hmdp.controller;
 
 
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
-import com.hmdp.entity.User;
 import com.hmdp.service.IBlogService;
-import com.hmdp.service.IUserService;
+import com.hmdp.utils.PageUtils;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
-import java.util.List;
 
 /**
  * <p>
@@ -43,15 +40,12 @@ public class BlogController {
     }
 
     @GetMapping("/of/me")
-    public Result queryMyBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
+    public Result queryMyBlog(
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "lastId", required = false) Long lastId) {
         // 获取登录用户
         UserDTO user = UserHolder.getUser();
-        // 根据用户查询
-        Page<Blog> page = blogService.query()
-                .eq("user_id", user.getId()).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 获取当前页数据
-        List<Blog> records = page.getRecords();
-        return Result.ok(records);
+        return queryBlogOfUser(user.getId(), current, lastId);
     }
 
     @GetMapping("/hot")
@@ -71,13 +65,21 @@ public class BlogController {
     @GetMapping("/of/user")
     public Result queryBlogByUserId(
             @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "lastId", required = false) Long lastId,
             @RequestParam("id") Long id) {
-        // 根据用户查询
-        Page<Blog> page = blogService.query()
-                .eq("user_id", id).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 获取当前页数据
-        List<Blog> records = page.getRecords();
-        return Result.ok(records);
+        return queryBlogOfUser(id, current, lastId);
+    }
+
+    /**
+     * 根据用户分页查询，不查询总数。传了lastId时按id游标分页，否则按页码分页
+     */
+    private Result queryBlogOfUser(Long userId, Integer current, Long lastId) {
+        if (lastId != null) {
+            return Result.ok(PageUtils.seek(blogService.query().eq("user_id", userId),
+                    lastId, SystemConstants.MAX_PAGE_SIZE, Blog::getId));
+        }
+        return Result.ok(PageUtils.slice(() -> blogService.query().eq("user_id", userId),
+                current, SystemConstants.MAX_PAGE_SIZE, Blog::getId));
     }
 
     @GetMapping("/of/follow")
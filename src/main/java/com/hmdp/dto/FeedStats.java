@@ -0,0 +1,23 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+@Data
+public class FeedStats {
+    /**
+     * 最近一次裁剪完成的时间戳（毫秒）
+     */
+    private Long trimmedAt;
+    /**
+     * 收件箱和发件箱的数量
+     */
+    private Long keyCount;
+    /**
+     * 收件箱和发件箱中的博文总数
+     */
+    private Long entryCount;
+    /**
+     * 收件箱和发件箱占用的Redis内存（MEMORY USAGE之和，字节）
+     */
+    private Long memoryBytes;
+}
@@ -0,0 +1,23 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+@Data
+public class LikeFlushStats {
+    /**
+     * 最近一次刷新完成的时间戳（毫秒）
+     */
+    private Long flushedAt;
+    /**
+     * 最近一次刷新的博文数
+     */
+    private Integer flushedBlogs;
+    /**
+     * 最近一次刷新的延迟：最早一次未刷新的点赞距刷新完成的毫秒数
+     */
+    private Long lastLag;
+    /**
+     * 当前的延迟：最早一次尚未刷新的点赞距今的毫秒数，没有待刷新的点赞时为0
+     */
+    private Long pendingLag;
+}
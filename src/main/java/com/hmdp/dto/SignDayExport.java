@@ -0,0 +1,18 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.time.LocalDate;
+
+@Data
+public class SignDayExport {
+    private LocalDate date;
+    /**
+     * 当天签到用户数
+     */
+    private Long count;
+    /**
+     * 签到位图的base64编码，与Redis中的位图一致：第i位（字节内高位在前）为1表示userId为i的用户已签到
+     */
+    private String bitmap;
+}
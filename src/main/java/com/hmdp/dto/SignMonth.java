@@ -0,0 +1,19 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class SignMonth {
+    /**
+     * 月份，格式 yyyy-MM
+     */
+    private String month;
+    /**
+     * 签到位图，第i位表示第i+1天
+     */
+    private Long mask;
+    private List<Integer> days;
+    private Integer count;
+}
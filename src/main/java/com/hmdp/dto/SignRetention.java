@@ -0,0 +1,19 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+@Data
+public class SignRetention {
+    /**
+     * 距离首日的天数
+     */
+    private Integer day;
+    /**
+     * 首日和当天都签到的用户数
+     */
+    private Long retained;
+    /**
+     * 留存率，retained / 首日签到用户数
+     */
+    private Double rate;
+}
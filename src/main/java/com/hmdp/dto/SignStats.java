@@ -0,0 +1,25 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Data
+public class SignStats {
+    private LocalDate from;
+    private LocalDate to;
+    /**
+     * 区间内签到总天数
+     */
+    private Integer totalDays;
+    /**
+     * 区间内最长连续签到天数
+     */
+    private Integer longestStreak;
+    /**
+     * 截止到今天的连续签到天数，可以跨月
+     */
+    private Integer currentStreak;
+    private List<SignMonth> months;
+}
@@ -0,0 +1,12 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class SliceResult {
+    private List<?> list;
+    private Boolean hasMore;
+    private Long lastId;
+}
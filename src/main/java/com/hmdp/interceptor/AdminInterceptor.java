@@ -0,0 +1,38 @@
+package com.hmdp.interceptor;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.UserHolder;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Set;
+
+/**
+ * 运营接口拦截器，只允许配置在 hmdp.admin.user-ids 中的用户访问
+ */
+public class AdminInterceptor implements HandlerInterceptor {
+    private Set<Long> adminIds;
+
+    public AdminInterceptor(Set<Long> adminIds) {
+        this.adminIds = adminIds;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 1.获取ThreadLocal里的user
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            // 2.未登录，返回401
+            response.setStatus(401);
+            return false;
+        }
+        if (!adminIds.contains(user.getId())) {
+            // 3.不是管理员，返回403
+            response.setStatus(403);
+            return false;
+        }
+        // 4.放行
+        return true;
+    }
+}
@@ -1,25 +1,22 @@
 package com.hmdp.interceptor;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.LoginSessionCache;
+import com.hmdp.utils.SignedTokenService;
 import com.hmdp.utils.UserHolder;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.HandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
-
-import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
-import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
 
 public class RefreshTokenInterceptor implements HandlerInterceptor {
-    private StringRedisTemplate stringRedisTemplate;
+    private LoginSessionCache loginSessionCache;
+    private SignedTokenService signedTokenService;
 
-    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
-        this.stringRedisTemplate = stringRedisTemplate;
+    public RefreshTokenInterceptor(LoginSessionCache loginSessionCache, SignedTokenService signedTokenService) {
+        this.loginSessionCache = loginSessionCache;
+        this.signedTokenService = signedTokenService;
     }
 
     @Override
@@ -29,20 +26,20 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
         if (StrUtil.isBlank(token)) {
             return true;
         }
-        // 2.获取Redis存储的用户信息
-        String tokenKey = LOGIN_USER_KEY + token;
-        Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(tokenKey);
+        // 2.获取用户信息：签名token在本地校验；否则优先查本地会话缓存，未命中再查Redis
+        boolean signed = signedTokenService.isEnabled();
+        UserDTO user = signed ? signedTokenService.verify(token) : loginSessionCache.get(token);
         // 3.判断用户是否存在
-        if (userMap.isEmpty()) {
+        if (user == null) {
             return true;
         }
-        // 4.将获取到的Hash对象转为UserDTO对象
-        UserDTO user = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
-        // 5.存在，保存用户信息到ThreadLocal
+        // 4.存在，保存用户信息到ThreadLocal
         UserHolder.saveUser(user);
-        // 6.刷新Token有效期
-        stringRedisTemplate.expire(tokenKey, LOGIN_USER_TTL, TimeUnit.SECONDS);
-        // 7.放行
+        // 5.登记刷新Token有效期，由后台任务批量执行；签名token的有效期写在token中，不需要刷新
+        if (!signed) {
+            loginSessionCache.touch(token);
+        }
+        // 6.放行
         return true;
     }
 
@@ -25,4 +25,8 @@ public interface IBlogService extends IService<Blog> {
     Result saveBlog(Blog blog);
 
     Result queryBlogOfFollow(Long max, Integer offset);
+
+    Result queryLikeFlushStats();
+
+    Result queryFeedStats();
 }
@@ -16,7 +16,11 @@ public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id);
 
+    Result saveShop(Shop shop);
+
     Result update(Shop shop);
 
-    Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+    Result queryShopByName(String name, Integer current, Long lastId);
+
+    Result queryShopByType(Integer typeId, Integer current, Long lastId, Double x, Double y);
 }
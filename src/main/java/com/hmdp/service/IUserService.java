@@ -3,9 +3,12 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
 import javax.servlet.http.HttpSession;
+import java.time.LocalDate;
+import java.util.List;
 
 /**
  * <p>
@@ -26,4 +29,14 @@ public interface IUserService extends IService<User> {
     Result sign();
 
     Result signCount();
+
+    Result signStats(LocalDate from, LocalDate to);
+
+    Result signActive(LocalDate from, LocalDate to);
+
+    Result signRetention(LocalDate date, List<Integer> days);
+
+    Result signExport(LocalDate date);
+
+    List<UserDTO> queryUserDTOs(List<Long> ids);
 }
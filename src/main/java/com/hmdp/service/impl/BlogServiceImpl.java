@@ -1,36 +1,58 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.LikeFlushStats;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
-import com.hmdp.entity.Follow;
-import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.FeedClient;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_COUNT_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_TTL;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_DIRTY_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_FLUSHING_KEY;
 import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
-import static com.hmdp.utils.RedisConstants.FEED_KEY;
 
 /**
  * <p>
@@ -40,6 +62,7 @@ import static com.hmdp.utils.RedisConstants.FEED_KEY;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
     @Resource
@@ -47,23 +70,152 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     private StringRedisTemplate stringRedisTemplate;
     @Resource
-    private IFollowService followService;
+    private FeedClient feedClient;
+    @Resource
+    private RedissonClient redissonClient;
+    @Resource
+    private CacheClient cacheClient;
+
+    private static final DefaultRedisScript<Long> LIKE_SCRIPT;
+    private static final DefaultRedisScript<Long> HOT_REBUILD_SCRIPT;
+
+    static {
+        LIKE_SCRIPT = new DefaultRedisScript<>();
+        LIKE_SCRIPT.setLocation(new ClassPathResource("like.lua"));
+        LIKE_SCRIPT.setResultType(Long.class);
+        HOT_REBUILD_SCRIPT = new DefaultRedisScript<>();
+        HOT_REBUILD_SCRIPT.setLocation(new ClassPathResource("hot_rebuild.lua"));
+        HOT_REBUILD_SCRIPT.setResultType(Long.class);
+    }
+
+    private static final int LIKE_FLUSH_BATCH_SIZE = 500;
+
+    private static final int HOT_REBUILD_BATCH_SIZE = 1000;
+
+    /**
+     * 点赞数刷新到数据库的间隔（毫秒）
+     */
+    @Value("${hmdp.blog.like-flush-interval:1000}")
+    private long likeFlushInterval;
+
+    /**
+     * 热门排行榜从数据库重建的间隔（毫秒）
+     */
+    @Value("${hmdp.blog.hot-rebuild-interval:3600000}")
+    private long hotRebuildInterval;
+
+    /**
+     * 最近一次刷新点赞数的统计，刷新完成时整体替换
+     */
+    private volatile LikeFlushStats lastLikeFlush = new LikeFlushStats();
+
+    private ScheduledExecutorService likeFlushExecutor;
+
+    @PostConstruct
+    private void init() {
+        likeFlushExecutor = Executors.newSingleThreadScheduledExecutor();
+        // 启动时立即重建一次热门排行榜，之后定期重建
+        likeFlushExecutor.scheduleWithFixedDelay(() -> {
+            RLock lock = redissonClient.getLock("lock:blog:hot:rebuild");
+            try {
+                if (lock.tryLock()) {
+                    rebuildHotBlogs();
+                }
+            } catch (Exception e) {
+                // 异常不能抛出，否则定时任务会被取消
+                log.error("重建热门博文排行榜异常", e);
+            } finally {
+                if (lock.isHeldByCurrentThread()) {
+                    lock.unlock();
+                }
+            }
+        }, 0, hotRebuildInterval, TimeUnit.MILLISECONDS);
+        likeFlushExecutor.scheduleWithFixedDelay(() -> {
+            // 集群中同一时间只有一个节点刷新
+            RLock lock = redissonClient.getLock("lock:blog:like:flush");
+            try {
+                // 获取锁也可能因为Redis异常而失败，同样不能抛出
+                if (lock.tryLock()) {
+                    flushLikes();
+                }
+            } catch (Exception e) {
+                // 异常不能抛出，否则定时任务会被取消
+                log.error("刷新点赞数异常", e);
+            } finally {
+                if (lock.isHeldByCurrentThread()) {
+                    lock.unlock();
+                }
+            }
+        }, likeFlushInterval, likeFlushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        likeFlushExecutor.shutdownNow();
+    }
     @Override
     public Result queryHotBlog(Integer current) {
-        // 根据用户查询
-        Page<Blog> page = query()
-                .orderByDesc("liked")
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 获取当前页数据
-        List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog ->  {
-            this.queryBlogUser(blog);
-            this.isBlogLiked(blog);
-        });
+        if (current == null || current < 1) {
+            return Result.fail("页码必须大于0！");
+        }
+        // 从热门排行榜分页查询 ZREVRANGE blog:hot start end WITHSCORES
+        long start = (long) (current - 1) * SystemConstants.MAX_PAGE_SIZE;
+        Set<ZSetOperations.TypedTuple<String>> typedTuples = stringRedisTemplate.opsForZSet()
+                .reverseRangeWithScores(BLOG_HOT_KEY, start, start + SystemConstants.MAX_PAGE_SIZE - 1);
+        if (typedTuples == null || typedTuples.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        // 解析出blogId和点赞数
+        List<Long> ids = new ArrayList<>(typedTuples.size());
+        Map<Long, Integer> likedMap = new HashMap<>(typedTuples.size());
+        for (ZSetOperations.TypedTuple<String> tuple : typedTuples) {
+            Long id = Long.valueOf(tuple.getValue());
+            ids.add(id);
+            likedMap.put(id, tuple.getScore().intValue());
+        }
+        // 批量查询blog缓存，缓存对象会被多个请求共享，复制后再填充用户和点赞信息
+        List<Blog> records = cacheClient.queryBatch(CACHE_BLOG_KEY, ids, Blog.class,
+                        this::listByIds, Blog::getId, CACHE_BLOG_TTL, TimeUnit.MINUTES)
+                .stream()
+                .map(blog -> BeanUtil.copyProperties(blog, Blog.class).setLiked(likedMap.get(blog.getId())))
+                .collect(Collectors.toList());
+        // 批量查询用户
+        queryBlogUsers(records);
+        isBlogsLiked(records);
         return Result.ok(records);
     }
 
+    /**
+     * 重建热门排行榜：按id分批读取tb_blog，每批执行一次lua脚本直接写入 blog:hot。
+     * 不使用临时key再RENAME，否则重建期间like.lua和saveBlog写入的变更会被覆盖；
+     * 脚本内读取计数器，已经在Redis中计数的博文以计数器为准
+     */
+    private void rebuildHotBlogs() {
+        List<String> keys = Arrays.asList(BLOG_HOT_KEY, BLOG_LIKED_COUNT_KEY);
+        long lastId = 0;
+        int total = 0;
+        while (true) {
+            List<Blog> blogs = query().select("id", "liked")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + HOT_REBUILD_BATCH_SIZE)
+                    .list();
+            if (blogs.isEmpty()) {
+                break;
+            }
+            String[] args = new String[blogs.size() * 2];
+            for (int i = 0; i < blogs.size(); i++) {
+                Integer liked = blogs.get(i).getLiked();
+                args[2 * i] = blogs.get(i).getId().toString();
+                args[2 * i + 1] = String.valueOf(liked == null ? 0 : liked);
+            }
+            stringRedisTemplate.execute(HOT_REBUILD_SCRIPT, keys, (Object[]) args);
+            total += blogs.size();
+            lastId = blogs.get(blogs.size() - 1).getId();
+        }
+        log.info("热门博文排行榜重建完成，共 {} 篇博文", total);
+    }
+
 
     @Override
     public Result queryBlogById(Long id) {
@@ -93,34 +245,130 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
     }
 
+    /**
+     * 用一次pipeline批量查询当前用户对一页博文的点赞状态
+     */
+    private void isBlogsLiked(List<Blog> blogs) {
+        UserDTO user = UserHolder.getUser();
+        if (user == null || blogs.isEmpty()) {
+            return;
+        }
+        String userId = user.getId().toString();
+        // 批量执行 ZSCORE blog:liked:id userId
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (Blog blog : blogs) {
+                stringConnection.zScore(BLOG_LIKED_KEY + blog.getId(), userId);
+            }
+            return null;
+        });
+        for (int i = 0; i < blogs.size(); i++) {
+            blogs.get(i).setIsLike(scores.get(i) != null);
+        }
+    }
+
     @Override
-    @Transactional
     public Result likeBlog(Long id) {
         // 获取登录用户
         Long userId = UserHolder.getUser().getId();
-        // 判断当千登录用户是否已经点赞
-        String key = BLOG_LIKED_KEY + id;
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
-        if (score == null) {
-            // 如果未点赞，可以点赞
-            // 数据库点赞数 + 1
-            boolean isSuccess = update().setSql("liked = liked + 1").eq("id", id).update();
-            // 保存用户到Redis的sortedset集合 zadd key value score
-            if (isSuccess) {
-                stringRedisTemplate.opsForZSet().add(key, userId.toString(), System.currentTimeMillis());
-            }
-        } else {
-            // 如果已点赞，取消点赞
-            // 数据库点赞数 - 1
-            boolean isSuccess = update().setSql("liked = liked - 1").eq("id", id).update();
-            // 把用户从Redis的set集合移除
-            if (isSuccess) {
-                stringRedisTemplate.opsForZSet().remove(key, userId.toString());
+        // 执行lua脚本，原子地切换点赞状态并更新Redis中的点赞数，数据库由后台任务批量刷新
+        Long liked = executeLikeScript(id, userId);
+        if (liked == null) {
+            // 点赞数计数器未初始化，从数据库加载 HSETNX blog:liked:count id liked
+            Blog blog = query().select("id", "liked").eq("id", id).one();
+            if (blog == null) {
+                return Result.fail("笔记不存在！");
             }
+            stringRedisTemplate.opsForHash().putIfAbsent(BLOG_LIKED_COUNT_KEY, id.toString(),
+                    String.valueOf(blog.getLiked() == null ? 0 : blog.getLiked()));
+            executeLikeScript(id, userId);
         }
         return Result.ok();
+    }
 
+    private Long executeLikeScript(Long id, Long userId) {
+        return stringRedisTemplate.execute(
+                LIKE_SCRIPT,
+                Collections.emptyList(),
+                id.toString(),
+                userId.toString(),
+                String.valueOf(System.currentTimeMillis())
+        );
+    }
 
+    /**
+     * 把Redis中变更过的点赞数批量刷新到数据库。
+     * 先把待刷新集合RENAME为flushing，刷新成功后再删除；刷新的是点赞数的绝对值，
+     * 宕机后重新执行也不会重复累加
+     */
+    private void flushLikes() {
+        // 1.上一次未完成的flushing优先处理，否则把dirty切换为flushing
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_LIKED_FLUSHING_KEY))) {
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_LIKED_DIRTY_KEY))) {
+                return;
+            }
+            stringRedisTemplate.renameIfAbsent(BLOG_LIKED_DIRTY_KEY, BLOG_LIKED_FLUSHING_KEY);
+        }
+        Set<ZSetOperations.TypedTuple<String>> dirty = stringRedisTemplate.opsForZSet()
+                .rangeWithScores(BLOG_LIKED_FLUSHING_KEY, 0, -1);
+        if (dirty == null || dirty.isEmpty()) {
+            stringRedisTemplate.delete(BLOG_LIKED_FLUSHING_KEY);
+            return;
+        }
+        // 2.查询最新点赞数 HMGET blog:liked:count id1 id2 ...
+        List<Object> ids = new ArrayList<>(dirty.size());
+        long oldest = Long.MAX_VALUE;
+        for (ZSetOperations.TypedTuple<String> tuple : dirty) {
+            ids.add(tuple.getValue());
+            oldest = Math.min(oldest, tuple.getScore().longValue());
+        }
+        List<Object> counts = stringRedisTemplate.opsForHash().multiGet(BLOG_LIKED_COUNT_KEY, ids);
+        List<Blog> blogs = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            Object count = counts.get(i);
+            if (count != null) {
+                blogs.add(new Blog().setId(Long.valueOf((String) ids.get(i))).setLiked(Integer.valueOf((String) count)));
+            }
+        }
+        // 3.一条UPDATE ... CASE语句批量写入数据库
+        for (List<Blog> batch : CollUtil.split(blogs, LIKE_FLUSH_BATCH_SIZE)) {
+            getBaseMapper().updateLikedBatch(batch);
+        }
+        // 4.刷新完成，删除flushing
+        stringRedisTemplate.delete(BLOG_LIKED_FLUSHING_KEY);
+        // 刷新延迟：最早一次未刷新的点赞距刷新完成的毫秒数
+        long now = System.currentTimeMillis();
+        LikeFlushStats stats = new LikeFlushStats();
+        stats.setFlushedAt(now);
+        stats.setFlushedBlogs(blogs.size());
+        stats.setLastLag(now - oldest);
+        lastLikeFlush = stats;
+        log.debug("点赞数刷新完成，共 {} 篇博文，刷新延迟 {} ms", blogs.size(), now - oldest);
+    }
+
+    @Override
+    public Result queryLikeFlushStats() {
+        LikeFlushStats last = lastLikeFlush;
+        LikeFlushStats stats = new LikeFlushStats();
+        stats.setFlushedAt(last.getFlushedAt());
+        stats.setFlushedBlogs(last.getFlushedBlogs());
+        stats.setLastLag(last.getLastLag());
+        // 待刷新的点赞中最早的时间戳，flushing和dirty都要看，刷新卡住时延迟会持续增长
+        long now = System.currentTimeMillis();
+        long pendingLag = 0;
+        for (String key : Arrays.asList(BLOG_LIKED_FLUSHING_KEY, BLOG_LIKED_DIRTY_KEY)) {
+            Set<ZSetOperations.TypedTuple<String>> first = stringRedisTemplate.opsForZSet().rangeWithScores(key, 0, 0);
+            if (first != null && !first.isEmpty()) {
+                pendingLag = Math.max(pendingLag, now - first.iterator().next().getScore().longValue());
+            }
+        }
+        stats.setPendingLag(pendingLag);
+        return Result.ok(stats);
+    }
+
+    @Override
+    public Result queryFeedStats() {
+        return Result.ok(feedClient.getFeedStats());
     }
 
     @Override
@@ -132,13 +380,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         }
         // 解析出其中的用户id
         List<Long> ids = top5.stream().map(Long::valueOf).toList();
-        // 根据用户id查询用户 WHERE id IN (1, 2, 3, 4) ORDER BY FIELD(id, 1, 2, 3, 4)
-        List<UserDTO> list = userService.query()
-                .in("id", ids)
-                .last("ORDER BY FIELD(id," + StrUtil.join(",", ids) + ")").list()
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .toList();
+        // 根据用户id批量查询用户缓存，结果与ids顺序一致
+        List<UserDTO> list = userService.queryUserDTOs(ids);
         return Result.ok(list);
     }
 
@@ -148,19 +391,17 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         // 获取登录用户
         UserDTO user = UserHolder.getUser();
         blog.setUserId(user.getId());
+        // 创建时间精确到秒，与数据库一致，作为关注流中的时间戳
+        blog.setCreateTime(LocalDateTime.now().withNano(0));
         // 保存探店博文
         boolean isSuccess = save(blog);
         if (!isSuccess) {
             return Result.fail("新增笔记失败！");
         }
-        // 查询笔记作者的所有粉丝
-        List<Follow> follows = followService.query().eq("follow_user_id", blog.getUserId()).list();
-        // 推送笔记id给所有粉丝
-        for (Follow follow : follows) {
-            Long userId = follow.getUserId();
-            String key = FEED_KEY + userId;
-            stringRedisTemplate.opsForZSet().add(key, blog.getId().toString(), System.currentTimeMillis());
-        }
+        // 加入热门排行榜
+        stringRedisTemplate.opsForZSet().addIfAbsent(BLOG_HOT_KEY, blog.getId().toString(), 0);
+        // 事务提交后异步推送到粉丝收件箱，大V写入发件箱
+        feedClient.publish(blog);
         // 返回id
         return Result.ok(blog.getId());
     }
@@ -173,10 +414,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             return Result.fail("用户未登录！");
         }
         Long userId = user.getId();
-        // 查询收件箱
-        String key = FEED_KEY + userId;
-        Set<ZSetOperations.TypedTuple<String>> typedTuples = stringRedisTemplate.opsForZSet()
-                .reverseRangeByScoreWithScores(key, 0, max, offset, 2);
+        // 查询收件箱，并合并关注的大V的发件箱
+        List<ZSetOperations.TypedTuple<String>> typedTuples = feedClient.queryFeed(userId, max, offset, 2);
         // 非空判断
         if (typedTuples == null || typedTuples.isEmpty()) {
             return Result.ok();
@@ -200,12 +439,25 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if (minTime == max) {
             os += offset;
         }
-        // 根据id查询blog
-        List<Blog> blogs = query().in("id", ids).last("ORDER BY FIELD(id," + StrUtil.join(",", ids) + ")").list();
-        for (Blog blog : blogs) {
-            queryBlogUser(blog);
-            isBlogLiked(blog);
+        // 批量查询blog缓存，结果与ids顺序一致；缓存对象会被多个请求共享，复制后再填充
+        List<Blog> blogs = cacheClient.queryBatch(CACHE_BLOG_KEY, ids, Blog.class,
+                        this::listByIds, Blog::getId, CACHE_BLOG_TTL, TimeUnit.MINUTES)
+                .stream()
+                .map(blog -> BeanUtil.copyProperties(blog, Blog.class))
+                .collect(Collectors.toList());
+        // 缓存中的点赞数可能已过时，以Redis中的计数器为准 HMGET blog:liked:count id1 id2 ...
+        if (!blogs.isEmpty()) {
+            List<Object> counts = stringRedisTemplate.opsForHash().multiGet(BLOG_LIKED_COUNT_KEY,
+                    blogs.stream().map(blog -> (Object) blog.getId().toString()).collect(Collectors.toList()));
+            for (int i = 0; i < blogs.size(); i++) {
+                Object count = counts.get(i);
+                if (count != null) {
+                    blogs.get(i).setLiked(Integer.valueOf((String) count));
+                }
+            }
         }
+        queryBlogUsers(blogs);
+        isBlogsLiked(blogs);
         // 封装并返回
         ScrollResult r = new ScrollResult();
         r.setList(blogs);
@@ -215,9 +467,25 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     }
 
     private void queryBlogUser(Blog blog) {
-        Long userId = blog.getUserId();
-        User user = userService.getById(userId);
-        blog.setName(user.getNickName());
-        blog.setIcon(user.getIcon());
+        queryBlogUsers(Collections.singletonList(blog));
+    }
+
+    /**
+     * 一次批量查询填充一页博文的作者昵称和头像
+     */
+    private void queryBlogUsers(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        List<Long> userIds = blogs.stream().map(Blog::getUserId).distinct().toList();
+        Map<Long, UserDTO> users = userService.queryUserDTOs(userIds).stream()
+                .collect(Collectors.toMap(UserDTO::getId, Function.identity()));
+        for (Blog blog : blogs) {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
     }
 }
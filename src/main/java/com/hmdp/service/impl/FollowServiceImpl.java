@@ -1,6 +1,5 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
@@ -18,7 +17,8 @@ import javax.annotation.Resource;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
-import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.FOLLOWS_KEY;
 
 /**
  * <p>
@@ -44,7 +44,7 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
             return Result.fail("用户未登录！");
         }
         Long userId = user.getId();
-        String key = "follows:" + userId;
+        String key = FOLLOWS_KEY + userId;
 
         // 判断关注还是取关
         if (isFollow) {
@@ -91,17 +91,14 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
         }
         Long userId = user.getId();
         // 求交集得出共同关注
-        String myKey = "follows:" + userId;
-        String otherKey = "follows:" + id;
+        String myKey = FOLLOWS_KEY + userId;
+        String otherKey = FOLLOWS_KEY + id;
         Set<String> intersect = stringRedisTemplate.opsForSet().intersect(myKey, otherKey);
         if (intersect == null || intersect.isEmpty()) {
             return Result.ok(Collections.emptyList());
         }
         List<Long> ids = intersect.stream().map(Long::valueOf).toList();
-        List<UserDTO> users = userService.listByIds(ids)
-                .stream()
-                .map(user1 -> BeanUtil.copyProperties(user1, UserDTO.class))
-                .collect(Collectors.toList());
+        List<UserDTO> users = userService.queryUserDTOs(ids);
         return Result.ok(users);
     }
 }
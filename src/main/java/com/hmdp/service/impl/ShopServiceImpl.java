@@ -1,11 +1,11 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.google.common.hash.BloomFilter;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
@@ -14,12 +14,18 @@ import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.GeoGrid;
+import com.hmdp.utils.GeoUtils;
+import com.hmdp.utils.PageUtils;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisData;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopLocalGeoIndex;
+import com.hmdp.utils.ShopNameIndex;
 import com.hmdp.utils.SystemConstants;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.geo.Distance;
-import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
 import org.springframework.data.redis.connection.RedisGeoCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -50,11 +56,45 @@ import static com.hmdp.utils.RedisConstants.*;
 @Slf4j
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
+    /**
+     * 附近商铺的搜索半径（米）
+     */
+    private static final double SEARCH_RADIUS = 5000;
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
     private CacheClient cacheClient;
+
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+
+    @Resource
+    private ShopLocalGeoIndex shopLocalGeoIndex;
+
+    @Resource
+    private ShopNameIndex shopNameIndex;
+
+    /**
+     * 附近商铺查询引擎：redis（GEOSEARCH，失败时降级到进程内索引）或 local（进程内网格索引）
+     */
+    @Value("${hmdp.geo.engine:redis}")
+    private String geoEngine;
+
+    /**
+     * 附近商铺搜索的网格精度（坐标保留的小数位数），3位约为100米
+     */
+    @Value("${hmdp.geo.cell-scale:3}")
+    private int geoCellScale;
+
+    /**
+     * 每个网格缓存的最大搜索结果数，即前 max-results/页大小 页走网格缓存；
+     * 更深的分页不走缓存，直接按用户坐标GEOSEARCH
+     */
+    @Value("${hmdp.geo.max-results:200}")
+    private int geoMaxResults;
+
     @Override
     public Result queryById(Long id) {
         // 缓存穿透解决方案
@@ -247,6 +287,17 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return shop;
     }*/
 
+    @Override
+    @Transactional
+    public Result saveShop(Shop shop) {
+        // 1.写入数据库
+        save(shop);
+        // 2.写入GEO索引和名称索引
+        shopGeoIndex.add(shop);
+        shopNameIndex.publish(shop.getId(), shop.getName());
+        return Result.ok(shop.getId());
+    }
+
     @Override
     @Transactional
     public Result update(Shop shop) {
@@ -254,60 +305,169 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if (id == null) {
             return Result.fail("店铺id不能为空");
         }
+        Shop old = getById(id);
+        if (old == null) {
+            return Result.fail("店铺不存在！");
+        }
         // 1.更新数据库
         updateById(shop);
-        // 2.删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        // 2.删除缓存，同时通知所有节点删除本地缓存
+        cacheClient.delete(CACHE_SHOP_KEY + id);
+        // 3.更新GEO索引，类型变化时从原类型中删除
+        shopGeoIndex.update(old, shop);
+        // 4.名称变化时更新名称索引
+        if (shop.getName() != null && !shop.getName().equals(old.getName())) {
+            shopNameIndex.publish(id, shop.getName());
+        }
         return Result.ok();
     }
 
     @Override
-    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
+    public Result queryShopByName(String name, Integer current, Long lastId) {
+        if (StrUtil.isNotBlank(name) && shopNameIndex.isReady()) {
+            // 查询名称倒排索引，得到按相关度排序的当前页id
+            List<Long> ids = shopNameIndex.search(name, current, SystemConstants.MAX_PAGE_SIZE);
+            // 根据id批量查询Shop缓存，结果与ids顺序一致
+            return Result.ok(cacheClient.queryBatch(CACHE_SHOP_KEY, ids, Shop.class,
+                    this::listByIds, Shop::getId, CACHE_SHOP_TTL, TimeUnit.MINUTES));
+        }
+        // 名称为空或索引尚未加载，按数据库查询，不查询总数
+        if (lastId != null) {
+            return Result.ok(PageUtils.seek(query().like(StrUtil.isNotBlank(name), "name", name),
+                    lastId, SystemConstants.MAX_PAGE_SIZE, Shop::getId));
+        }
+        return Result.ok(PageUtils.slice(() -> query().like(StrUtil.isNotBlank(name), "name", name),
+                current, SystemConstants.MAX_PAGE_SIZE, Shop::getId));
+    }
+
+    @Override
+    public Result queryShopByType(Integer typeId, Integer current, Long lastId, Double x, Double y) {
         // 判断是否需要根据坐标查询
         if (x == null || y == null) {
-            // 不需要坐标查询，按数据库查询
-            Page<Shop> page = query()
-                    .eq("type_id", typeId)
-                    .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
+            // 不需要坐标查询，按数据库查询，不查询总数
+            if (lastId != null) {
+                return Result.ok(PageUtils.seek(query().eq("type_id", typeId),
+                        lastId, SystemConstants.DEFAULT_PAGE_SIZE, Shop::getId));
+            }
             // 返回数据
-            return Result.ok(page.getRecords());
+            return Result.ok(PageUtils.slice(() -> query().eq("type_id", typeId),
+                    current, SystemConstants.DEFAULT_PAGE_SIZE, Shop::getId));
+        }
+        if (!GeoUtils.isValid(x, y)) {
+            return Result.fail("坐标超出范围！");
         }
-        // 计算分页参数
+        // 按距离排序、分页，得到当前页的商铺id
         int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
-        int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
-        // 查询redis，按照距离排序、分页。结果：shopId、distance
-        String key = SHOP_GEO_KEY + typeId;
-        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo()
-                .search(key,
-                        GeoReference.fromCoordinate(x, y),
-                        new Distance(5000),
-                        RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().limit(end)
-                );
-        // 解析出id
-        if (results == null) {
-            return Result.ok(Collections.emptyList());
+        List<Long> ids;
+        if ("local".equals(geoEngine) && shopLocalGeoIndex.isReady()) {
+            ids = searchLocal(typeId, x, y, from);
+        } else {
+            try {
+                ids = searchRedis(typeId, x, y, from);
+            } catch (Exception e) {
+                if (!shopLocalGeoIndex.isReady()) {
+                    throw e;
+                }
+                // Redis不可用时降级到进程内空间索引
+                log.warn("Redis附近商铺查询失败，降级到进程内索引，typeId={}", typeId, e);
+                ids = searchLocal(typeId, x, y, from);
+            }
         }
-        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> list = results.getContent();
-        if (list.size() <= from) {
+        if (ids.isEmpty()) {
             // 没有下一页了，结束
             return Result.ok(Collections.emptyList());
         }
-        // 截取从start到end的部分
-        List<Long> ids = new ArrayList<>(list.size());
-        Map<String, Distance> distanceMap = new HashMap<>(list.size());
-        list.stream().skip(from).forEach(result -> {
-            String ShopIdStr = result.getContent().getName();
-            ids.add(Long.valueOf(ShopIdStr));
-            Distance distance = result.getDistance();
-            distanceMap.put(ShopIdStr, distance);
-        });
-        // 根据id查询Shop
-        String idStr = StrUtil.join(",", ids);
-        List<Shop> shops = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
+        // 根据id批量查询Shop缓存，结果与ids顺序一致
+        List<Shop> shops = cacheClient.queryBatch(CACHE_SHOP_KEY, ids, Shop.class,
+                this::listByIds, Shop::getId, CACHE_SHOP_TTL, TimeUnit.MINUTES)
+                .stream()
+                // 缓存对象会被多个请求共享，复制后再设置距离
+                .map(shop -> BeanUtil.copyProperties(shop, Shop.class))
+                .collect(Collectors.toList());
+        // Redis引擎的结果按网格中心排序，距离统一按用户的实际坐标计算
         for (Shop shop : shops) {
-            shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
+            shop.setDistance(GeoUtils.distance(x, y, shop.getX(), shop.getY()));
         }
         // 返回
         return Result.ok(shops);
     }
+
+    /**
+     * Redis引擎：按网格缓存GEOSEARCH结果，再截取当前页
+     */
+    private List<Long> searchRedis(Integer typeId, double x, double y, int from) {
+        int end = from + SystemConstants.DEFAULT_PAGE_SIZE;
+        if (end > geoMaxResults) {
+            // 超出网格缓存的深分页，直接查询
+            return searchRedisDirect(typeId, x, y, from, end);
+        }
+        // 坐标舍入到网格，同一网格、同一类型的查询共享一份按距离排序的搜索结果
+        double cellX = GeoUtils.roundToCell(x, geoCellScale);
+        double cellY = GeoUtils.roundToCell(y, geoCellScale);
+        String resultKey = SHOP_GEO_RESULT_KEY + typeId + ":" + cellX + ":" + cellY;
+        // 从结果zset中截取当前页 ZRANGE key from end，以ZRANGE的结果判断是否命中，避免先判断存在后key过期
+        List<Long> ids = rangeIds(resultKey, from, end - 1);
+        if (!ids.isEmpty()) {
+            return ids;
+        }
+        // 结果为空：已翻过最后一页，或网格内没有商铺（空标记），或结果未缓存
+        Long cached = stringRedisTemplate.opsForZSet().zCard(resultKey);
+        if ((cached != null && cached > 0) || Boolean.TRUE.equals(stringRedisTemplate.hasKey(resultKey + ":empty"))) {
+            return Collections.emptyList();
+        }
+        // 未命中，GEOSEARCHSTORE一次性把搜索结果和距离写入结果zset，不经过应用
+        Long stored = stringRedisTemplate.opsForGeo().searchAndStore(
+                SHOP_GEO_KEY + typeId,
+                resultKey,
+                GeoReference.fromCoordinate(cellX, cellY),
+                new Distance(SEARCH_RADIUS),
+                RedisGeoCommands.GeoSearchStoreCommandArgs.newGeoSearchStoreArgs()
+                        .sortAscending().limit(geoMaxResults).storeDistance()
+        );
+        if (stored == null || stored == 0) {
+            // 没有结果时GEOSEARCHSTORE不会创建key，缓存空标记，避免空网格每次都重新搜索
+            stringRedisTemplate.opsForValue().set(resultKey + ":empty", "", SHOP_GEO_RESULT_TTL, TimeUnit.SECONDS);
+            return Collections.emptyList();
+        }
+        stringRedisTemplate.expire(resultKey, SHOP_GEO_RESULT_TTL, TimeUnit.SECONDS);
+        return rangeIds(resultKey, from, end - 1);
+    }
+
+    private List<Long> rangeIds(String key, long start, long end) {
+        Set<String> members = stringRedisTemplate.opsForZSet().range(key, start, end);
+        if (members == null) {
+            return Collections.emptyList();
+        }
+        return members.stream().map(Long::valueOf).collect(Collectors.toList());
+    }
+
+    /**
+     * 按用户坐标直接GEOSEARCH前end条，再跳过from条，结果不缓存
+     */
+    private List<Long> searchRedisDirect(Integer typeId, double x, double y, int from, int end) {
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().search(
+                SHOP_GEO_KEY + typeId,
+                GeoReference.fromCoordinate(x, y),
+                new Distance(SEARCH_RADIUS),
+                RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().sortAscending().limit(end)
+        );
+        if (results == null) {
+            return Collections.emptyList();
+        }
+        return results.getContent().stream()
+                .skip(from)
+                .map(result -> Long.valueOf(result.getContent().getName()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 进程内引擎：直接按用户坐标查询网格索引，再截取当前页
+     */
+    private List<Long> searchLocal(Integer typeId, double x, double y, int from) {
+        return shopLocalGeoIndex.search(typeId.longValue(), x, y, SEARCH_RADIUS, from + SystemConstants.DEFAULT_PAGE_SIZE)
+                .stream()
+                .skip(from)
+                .map(GeoGrid.Hit::getId)
+                .collect(Collectors.toList());
+    }
 }
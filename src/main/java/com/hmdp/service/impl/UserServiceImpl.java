@@ -12,11 +12,14 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.LoginSessionCache;
+import com.hmdp.utils.SignClient;
+import com.hmdp.utils.SignedTokenService;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeanUtils;
-import org.springframework.data.redis.connection.BitFieldSubCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import com.hmdp.utils.RegexUtils;
@@ -26,8 +29,9 @@ import org.springframework.web.context.request.ServletRequestAttributes;
 import javax.annotation.Resource;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -49,6 +53,20 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private LoginSessionCache loginSessionCache;
+    @Resource
+    private SignedTokenService signedTokenService;
+    @Resource
+    private SignClient signClient;
+
+    /**
+     * 一次留存查询最多统计的天数
+     */
+    private static final int MAX_RETENTION_DAYS = 30;
+
     @Override
     public Result sendCode(String phone, HttpSession session) {
         // 1.校验手机号是否正确
@@ -98,21 +116,27 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
             user = createWithPhone(phone);
         }
 
-        // 8.保存用户信息到Redis
-        // 8.1.生成token
-        String token = UUID.randomUUID().toString(true);
-        // 8.2.将User对象转为HashMap存储
         UserDTO userDTO = new UserDTO();
         BeanUtil.copyProperties(user, userDTO);
+        // 8.刷新用户资料缓存
+        cacheUserDTO(userDTO);
+        // 9.签名token模式，用户信息签名后直接放在token中，不写Redis
+        if (signedTokenService.isEnabled()) {
+            return Result.ok(signedTokenService.issue(userDTO));
+        }
+        // 10.保存用户信息到Redis
+        // 10.1.生成token
+        String token = UUID.randomUUID().toString(true);
+        // 10.2.将User对象转为HashMap存储
         Map<String, Object> userMap = BeanUtil.beanToMap(userDTO, new HashMap<>(),
                 CopyOptions.create()
                         .setIgnoreNullValue(true)
                         .setFieldValueEditor((name, value) -> value.toString()));
-        // 8.3.将HashMap存储到Redis中
+        // 10.3.将HashMap存储到Redis中
         String tokenKey = LOGIN_USER_KEY + token;
         stringRedisTemplate.opsForHash().putAll(tokenKey, userMap);
         stringRedisTemplate.expire(tokenKey, LOGIN_USER_TTL, TimeUnit.SECONDS);
-        // 9.返回token
+        // 11.返回token
         return Result.ok(token);
 
     }
@@ -137,11 +161,20 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
             return Result.fail("未登录或已退出！");
         }
 
-        // 3. 删除 Redis 中对应的 token key
+        // 3. 签名token无法删除，加入吊销列表
+        if (signedTokenService.isEnabled()) {
+            return signedTokenService.revoke(token)
+                    ? Result.ok("退出成功")
+                    : Result.fail("退出失败");
+        }
+
+        // 4. 删除 Redis 中对应的 token key
         String tokenKey = LOGIN_USER_KEY + token;
         Boolean deleted = stringRedisTemplate.delete(tokenKey);
+        // 删除所有节点的本地会话
+        loginSessionCache.evict(token);
 
-        // 4. 返回结果
+        // 5. 返回结果
         return deleted != null && deleted
                 ? Result.ok("退出成功")
                 : Result.fail("退出失败");
@@ -154,16 +187,8 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         if (user == null) {
             return Result.fail("未登录！");
         }
-        Long userId = user.getId();
-        // 获取当前日期
-        LocalDateTime now = LocalDateTime.now();
-        // 拼接key
-        String keySuffix = now.format(DateTimeFormatter.ofPattern(":yyyyMM"));
-        String key = USER_SIGN_KEY + userId + keySuffix;
-        // 获取今天是本月的第几天
-        int dayOfMonth = now.getDayOfMonth();
-        // 写入Redis
-        stringRedisTemplate.opsForValue().setBit(key, dayOfMonth - 1, true);
+        // 同时写入用户的月位图和当天的全员位图
+        signClient.sign(user.getId(), LocalDate.now());
         return Result.ok();
     }
 
@@ -174,42 +199,78 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         if (user == null) {
             return Result.fail("未登录！");
         }
-        Long userId = user.getId();
-        // 获取当前日期
-        LocalDateTime now = LocalDateTime.now();
-        // 拼接key
-        String keySuffix = now.format(DateTimeFormatter.ofPattern(":yyyyMM"));
-        String key = USER_SIGN_KEY + userId + keySuffix;
-        // 获取今天是本月的第几天
-        int dayOfMonth = now.getDayOfMonth();
-        // 获取本月截止到今天为止所有的签到记录，返回的是一个十进制的数字
-        List<Long> result = stringRedisTemplate.opsForValue().bitField(
-                key,
-                BitFieldSubCommands.create()
-                        .get(BitFieldSubCommands.BitFieldType.unsigned(dayOfMonth))
-                        .valueAt(0)
-        );
-        if (result == null || result.isEmpty()) {
-            // 没有签到结果
-            return Result.ok(0);
-        }
-        Long num = result.get(0);
-        if (num == null || num == 0L) {
-            return Result.ok(0);
-        }
-        // 循环遍历
-        int count = 0;
-        while (true) {
-            if ((num & 1) == 0) {
-                break;
-            } else {
-                count++;
+        // 截止到今天的连续签到天数，可以跨月
+        return Result.ok(signClient.currentStreak(user.getId()));
+    }
+
+    @Override
+    public Result signStats(LocalDate from, LocalDate to) {
+        // 获取当前登录用户
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            return Result.fail("未登录！");
+        }
+        // 默认统计本月
+        LocalDate today = LocalDate.now();
+        if (to == null) {
+            to = today;
+        }
+        if (from == null) {
+            from = to.withDayOfMonth(1);
+        }
+        if (from.isAfter(to)) {
+            return Result.fail("开始日期不能晚于结束日期！");
+        }
+        if (!YearMonth.from(from).plusMonths(signClient.getMaxMonths()).isAfter(YearMonth.from(to))) {
+            return Result.fail("统计区间不能超过" + signClient.getMaxMonths() + "个月！");
+        }
+        return Result.ok(signClient.stats(user.getId(), from, to));
+    }
+
+    @Override
+    public Result signActive(LocalDate from, LocalDate to) {
+        // 默认统计今天
+        if (to == null) {
+            to = LocalDate.now();
+        }
+        if (from == null) {
+            from = to;
+        }
+        if (from.isAfter(to)) {
+            return Result.fail("开始日期不能晚于结束日期！");
+        }
+        if (ChronoUnit.DAYS.between(from, to) >= signClient.getMaxDays()) {
+            return Result.fail("统计区间不能超过" + signClient.getMaxDays() + "天！");
+        }
+        return Result.ok(signClient.activeCount(from, to));
+    }
+
+    @Override
+    public Result signRetention(LocalDate date, List<Integer> days) {
+        if (days.isEmpty() || days.size() > MAX_RETENTION_DAYS) {
+            return Result.fail("留存天数最多" + MAX_RETENTION_DAYS + "个！");
+        }
+        for (Integer day : days) {
+            if (day == null || day < 1 || day > signClient.getMaxDays()) {
+                return Result.fail("留存天数必须在1到" + signClient.getMaxDays() + "之间！");
             }
-            num >>>= 1;
         }
-        return Result.ok(count);
+        return Result.ok(signClient.retention(date, days));
+    }
 
+    @Override
+    public Result signExport(LocalDate date) {
+        return Result.ok(signClient.export(date));
+    }
 
+    @Override
+    public List<UserDTO> queryUserDTOs(List<Long> ids) {
+        // 批量查询用户缓存，未命中的一次性查询数据库
+        return cacheClient.queryBatch(CACHE_USER_KEY, ids, UserDTO.class,
+                missIds -> listByIds(missIds).stream()
+                        .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+                        .toList(),
+                UserDTO::getId, CACHE_USER_TTL, TimeUnit.MINUTES);
     }
 
     private User createWithPhone(String phone) {
@@ -218,6 +279,15 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
                 .nickName(SystemConstants.USER_NICK_NAME_PREFIX + RandomUtil.randomString(10))
                 .build();
         save(user);
+        // 新用户写入用户资料缓存
+        cacheUserDTO(BeanUtil.copyProperties(user, UserDTO.class));
         return user;
     }
+
+    /**
+     * 写入用户资料缓存（昵称、头像），供博文列表等批量查询使用
+     */
+    private void cacheUserDTO(UserDTO userDTO) {
+        cacheClient.set(CACHE_USER_KEY + userDTO.getId(), userDTO, CACHE_USER_TTL, TimeUnit.MINUTES);
+    }
 }
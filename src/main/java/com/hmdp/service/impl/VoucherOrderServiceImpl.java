@@ -1,20 +1,30 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.util.StrUtil;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
-import org.springframework.aop.framework.AopContext;
+import org.redisson.api.AutoClaimResult;
+import org.redisson.api.PendingEntry;
+import org.redisson.api.RStream;
+import org.redisson.api.RedissonClient;
+import org.redisson.api.StreamMessageId;
+import org.redisson.api.stream.StreamAddArgs;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
 
 import com.hmdp.dto.Result;
+import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.IdGenerator;
+import com.hmdp.utils.SeckillStockGate;
 import com.hmdp.utils.UserHolder;
-import org.redisson.api.RedissonClient;
 import org.springframework.data.redis.connection.stream.*;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
@@ -22,15 +32,17 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import java.time.Duration;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -48,7 +60,10 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private ISeckillVoucherService seckillVoucherService;
 
     @Resource
-    private RedisIdWorker redisIdWorker;
+    private IdGenerator idGenerator;
+
+    @Resource
+    private SeckillStockGate seckillStockGate;
 
     @Resource
     StringRedisTemplate stringRedisTemplate;
@@ -65,24 +80,84 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     }
 
 
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    /**
+     * 每个节点启动的消费者数量
+     */
+    @Value("${hmdp.seckill.consumer-count:4}")
+    private int consumerCount;
+
+    /**
+     * 每次XREADGROUP最多读取的消息数
+     */
+    @Value("${hmdp.seckill.batch-size:100}")
+    private int batchSize;
+
+    /**
+     * 消费者名称前缀，不配置时使用主机名，保证不同节点的消费者名称不冲突
+     */
+    @Value("${hmdp.seckill.consumer-prefix:}")
+    private String consumerPrefix;
+
+    /**
+     * pending消息空闲超过该时长（毫秒）才会被回收，超过该时长说明原消费者已经宕机或处理卡住
+     */
+    @Value("${hmdp.seckill.reclaim-min-idle:30000}")
+    private long reclaimMinIdle;
+
+    /**
+     * pending消息回收任务的执行间隔（毫秒）
+     */
+    @Value("${hmdp.seckill.reclaim-interval:5000}")
+    private long reclaimInterval;
+
+    /**
+     * 消息投递次数超过该值时告警。基础设施故障（数据库、Redis不可用）导致的失败会一直重试，不转入死信队列
+     */
+    @Value("${hmdp.seckill.max-deliveries:5}")
+    private int maxDeliveries;
+
+    private ExecutorService seckillOrderExecutor;
+
+    private ScheduledExecutorService pendingReclaimExecutor;
 
     @PostConstruct
     private void init() {
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        String prefix = StrUtil.isNotBlank(consumerPrefix) ? consumerPrefix : NetUtil.getLocalHostName();
+        seckillOrderExecutor = Executors.newFixedThreadPool(consumerCount);
+        for (int i = 0; i < consumerCount; i++) {
+            seckillOrderExecutor.submit(new VoucherOrderHandler(prefix + "-c" + i));
+        }
+        pendingReclaimExecutor = Executors.newSingleThreadScheduledExecutor();
+        pendingReclaimExecutor.scheduleWithFixedDelay(new PendingOrderReclaimer(prefix + "-reclaimer"),
+                reclaimInterval, reclaimInterval, TimeUnit.MILLISECONDS);
     }
+
+    @PreDestroy
+    private void destroy() {
+        seckillOrderExecutor.shutdownNow();
+        pendingReclaimExecutor.shutdownNow();
+    }
+
     String queueName = "stream.orders";
+    String groupName = "g1";
+    String deadLetterQueueName = "stream.orders.dlq";
 
 
     private class VoucherOrderHandler implements Runnable {
+        private final String consumerName;
+
+        VoucherOrderHandler(String consumerName) {
+            this.consumerName = consumerName;
+        }
+
         @Override
         public void run() {
-            while (true) {
+            while (!Thread.currentThread().isInterrupted()) {
                 try {
-                    // 获取消息队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS streams.orders >
+                    // 获取消息队列中的订单信息 XREADGROUP GROUP g1 cN COUNT n BLOCK 2000 STREAMS streams.orders >
                     List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
+                            Consumer.from(groupName, consumerName),
+                            StreamReadOptions.empty().count(batchSize).block(Duration.ofSeconds(2)),
                             StreamOffset.create(queueName, ReadOffset.lastConsumed())
                     );
                     // 判断消息获取是否成功
@@ -90,56 +165,166 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                         // 如果获取失败，说明没有消息，继续下一次循环
                         continue;
                     }
-                    // 解析消息中的订单信息
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> values = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-                    // 如果获取成功，可以下单
-                    handleVoucherOrder(voucherOrder);
-                    // ACK确认 SACK stream.orders g1 id
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
-
+                    // 批量下单并ACK
+                    handleRecords(list);
                 } catch (Exception e) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        break;
+                    }
+                    // 处理失败的消息留在pending-list中，由PendingOrderReclaimer回收，不阻塞后续消费
                     log.error("处理订单异常", e);
-                    handlePendingList();
                 }
             }
         }
     }
 
-    private void handlePendingList() {
-        while (true) {
+    private void handleRecords(List<MapRecord<String, Object, Object>> records) {
+        // 解析消息中的订单信息，无法解析的消息不ACK，留给PendingOrderReclaimer转入死信队列
+        List<VoucherOrder> orders = new ArrayList<>(records.size());
+        List<RecordId> recordIds = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            VoucherOrder order = parseOrder(record.getValue());
+            if (order == null) {
+                log.error("订单消息格式错误，id={}, values={}", record.getId(), record.getValue());
+                continue;
+            }
+            orders.add(order);
+            recordIds.add(record.getId());
+        }
+        if (orders.isEmpty()) {
+            return;
+        }
+        // 同一批次的订单在一个事务中落库
+        proxy.createVoucherOrders(orders);
+        // 批量ACK确认 XACK stream.orders g1 id1 id2 ...
+        stringRedisTemplate.opsForStream().acknowledge(queueName, groupName, recordIds.toArray(new RecordId[0]));
+    }
+
+    /**
+     * 解析并校验订单消息，缺少字段或格式错误时返回null
+     */
+    private static VoucherOrder parseOrder(Map<?, ?> values) {
+        try {
+            VoucherOrder order = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), false);
+            if (order.getId() == null || order.getUserId() == null || order.getVoucherId() == null) {
+                return null;
+            }
+            return order;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * 回收整个消费者组中空闲过久的pending消息：XAUTOCLAIM认领后重新下单。
+     * 无法解析或校验失败的消息转入死信队列，保证单条坏消息不会阻塞消费；
+     * 合法订单因数据库等故障失败时一直保留在pending-list中重试，不会丢单
+     */
+    private class PendingOrderReclaimer implements Runnable {
+        private final String consumerName;
+
+        PendingOrderReclaimer(String consumerName) {
+            this.consumerName = consumerName;
+        }
+
+        @Override
+        public void run() {
             try {
-                // 获取pending-list中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS streams.orders 0
-                List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                        Consumer.from("g1", "c1"),
-                        StreamReadOptions.empty().count(1),
-                        StreamOffset.create(queueName, ReadOffset.from("0"))
-                );
-                // 判断消息获取是否成功
-                if (list == null || list.isEmpty()) {
-                    // 如果获取失败，说明pending-list没有消息，结束循环
-                    break;
+                reclaim();
+            } catch (Exception e) {
+                // 异常不能抛出，否则定时任务会被取消
+                log.error("回收pending-list订单异常", e);
+            }
+        }
+
+        private void reclaim() {
+            RStream<String, String> stream = redissonClient.getStream(queueName, StringCodec.INSTANCE);
+            long begin = System.currentTimeMillis();
+            int reclaimed = 0, deadLettered = 0;
+            // 被回收的消息从写入stream到被回收的最长时间，XAUTOCLAIM会重置空闲时间，因此按消息id中的时间戳计算
+            long maxAge = 0;
+            StreamMessageId cursor = new StreamMessageId(0, 0);
+            do {
+                // 1.认领空闲超时的消息 XAUTOCLAIM stream.orders g1 reclaimer minIdle cursor COUNT n
+                AutoClaimResult<String, String> result = stream.autoClaim(
+                        groupName, consumerName, reclaimMinIdle, TimeUnit.MILLISECONDS, cursor, batchSize);
+                cursor = result.getNextId();
+                Map<StreamMessageId, Map<String, String>> messages = result.getMessages();
+                if (messages == null || messages.isEmpty()) {
+                    continue;
+                }
+                // 2.查询投递次数 XPENDING stream.orders g1 firstId lastId n reclaimer
+                List<StreamMessageId> ids = new ArrayList<>(messages.keySet());
+                ids.sort(Comparator.comparingLong(StreamMessageId::getId0).thenComparingLong(StreamMessageId::getId1));
+                maxAge = Math.max(maxAge, System.currentTimeMillis() - ids.get(0).getId0());
+                Map<StreamMessageId, Long> deliveries = new HashMap<>(messages.size());
+                for (PendingEntry entry : stream.listPending(groupName, consumerName,
+                        ids.get(0), ids.get(ids.size() - 1), ids.size())) {
+                    deliveries.put(entry.getId(), entry.getLastTimeDelivered());
+                }
+                // 3.无法解析的消息转入死信队列，其余重新下单
+                Map<StreamMessageId, VoucherOrder> retries = new LinkedHashMap<>(messages.size());
+                for (Map.Entry<StreamMessageId, Map<String, String>> message : messages.entrySet()) {
+                    long count = deliveries.getOrDefault(message.getKey(), 0L);
+                    VoucherOrder order = parseOrder(message.getValue());
+                    if (order == null) {
+                        moveToDeadLetter(stream, message.getKey(), message.getValue(), count);
+                        deadLettered++;
+                        continue;
+                    }
+                    if (count > maxDeliveries) {
+                        log.error("订单消息投递次数过多，继续重试，id={}, deliveries={}", message.getKey(), count);
+                    }
+                    retries.put(message.getKey(), order);
                 }
-                // 解析消息中的订单信息
-                MapRecord<String, Object, Object> record = list.get(0);
-                Map<Object, Object> values = record.getValue();
-                VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-                // 如果获取成功，可以下单
-                handleVoucherOrder(voucherOrder);
-                // ACK确认 SACK stream.orders g1 id
-                stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
+                reclaimed += retryOrders(stream, retries);
+            } while (!cursor.equals(new StreamMessageId(0, 0)));
+            if (reclaimed > 0 || deadLettered > 0) {
+                log.info("回收pending订单完成，重新下单 {} 条，转入死信 {} 条，最长滞留 {} ms，耗时 {} ms",
+                        reclaimed, deadLettered, maxAge, System.currentTimeMillis() - begin);
+            }
+        }
 
+        private int retryOrders(RStream<String, String> stream, Map<StreamMessageId, VoucherOrder> messages) {
+            if (messages.isEmpty()) {
+                return 0;
+            }
+            List<VoucherOrder> orders = new ArrayList<>(messages.values());
+            try {
+                // 整批重试
+                proxy.createVoucherOrders(orders);
+                stream.ack(groupName, messages.keySet().toArray(new StreamMessageId[0]));
+                return messages.size();
             } catch (Exception e) {
-                log.error("处理pending-list订单异常", e);
+                log.warn("批量重试pending订单失败，逐条重试", e);
+            }
+            // 整批失败时逐条重试，失败的订单留在pending-list中等待下一次回收
+            int success = 0;
+            int i = 0;
+            for (StreamMessageId id : messages.keySet()) {
                 try {
-                    Thread.sleep(20);
-                } catch (InterruptedException ex) {
-                    ex.printStackTrace();
+                    proxy.createVoucherOrders(Collections.singletonList(orders.get(i)));
+                    stream.ack(groupName, id);
+                    success++;
+                } catch (Exception e) {
+                    log.error("重试pending订单失败，id={}", id, e);
                 }
+                i++;
             }
+            return success;
         }
 
+        private void moveToDeadLetter(RStream<String, String> stream, StreamMessageId id,
+                                      Map<String, String> values, long deliveries) {
+            Map<String, String> deadLetter = new HashMap<>(values);
+            deadLetter.put("sourceId", id.toString());
+            deadLetter.put("deliveries", String.valueOf(deliveries));
+            // XADD stream.orders.dlq * ... 然后 XACK，原消息不再投递
+            redissonClient.<String, String>getStream(deadLetterQueueName, StringCodec.INSTANCE)
+                    .add(StreamAddArgs.entries(deadLetter));
+            stream.ack(groupName, id);
+            log.error("订单消息无法解析，转入死信队列，id={}, values={}", id, values);
+        }
     }
 /*
     private BlockingQueue<VoucherOrder> orderTasks = new ArrayBlockingQueue<>(1024 * 1024);
@@ -160,39 +345,23 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         }
     }*/
 
-        private void handleVoucherOrder(VoucherOrder voucherOrder) {
-            // 获取用户
-            Long userId = voucherOrder.getUserId();
-            // 创建锁对象
-            // SimpleRedisILock lock = new SimpleRedisILock(stringRedisTemplate, "order:" + userId);
-            RLock lock = redissonClient.getLock("lock:order:" + userId);
-            // 获取锁
-            boolean isLock = lock.tryLock();
-            if (!isLock) {
-                // 获取锁失败，返回错误或重试
-                log.error("不允许重复下单！");
-                return;
-            }
-            try {
-                // 获取代理对象（事务）
-                proxy.createVoucherOrder(voucherOrder);
-            } catch (IllegalStateException e) {
-                throw new RuntimeException(e);
-            } finally {
-                // 释放锁
-                lock.unlock();
-            }
-
-        }
-
+        /**
+         * 代理对象，保证createVoucherOrders的事务生效。启动时消费者就会用到，不能等到第一次下单时再获取
+         */
+        @Lazy
+        @Resource
         private IVoucherOrderService proxy;
 
         @Override
         public Result seckillVoucher(Long voucherId) {
+            // 本地库存闸门，已售罄直接返回，不访问Redis
+            if (seckillStockGate.isSoldOut(voucherId)) {
+                return Result.fail("库存不足！");
+            }
             // 获取用户
             Long userId = UserHolder.getUser().getId();
             // 订单id
-            long orderId = redisIdWorker.nextId("order");
+            long orderId = idGenerator.nextId("order");
             // 执行lua脚本
             Long result = stringRedisTemplate.execute(
                     SECKILL_SCRIPT,
@@ -204,11 +373,14 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
             // 判断结果是否为0
             int r = result.intValue();
             if (r != 0) {
+                if (r == 1) {
+                    // 库存不足，标记售罄
+                    seckillStockGate.markSoldOut(voucherId);
+                }
                 // 不为0，没有购买资格
                 return Result.fail(r == 1 ? "库存不足！" : "不能重复下单！");
             }
-            // 获取代理对象
-            proxy = (IVoucherOrderService) AopContext.currentProxy();
+            seckillStockGate.onOrderSuccess(voucherId);
             // 返回订单id
             return Result.ok(orderId);
 
@@ -324,5 +496,75 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
 
         }
+
+    @Transactional
+    @Override
+    public void createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        if (voucherOrders.isEmpty()) {
+            return;
+        }
+        // 1.过滤已经落库的订单（pending-list重投时保证幂等）
+        List<Long> orderIds = voucherOrders.stream().map(VoucherOrder::getId).toList();
+        Set<Long> savedIds = query().select("id").in("id", orderIds).list()
+                .stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+        // 2.一人一单校验，批次内同一用户同一优惠券只保留一单
+        Set<Long> userIds = voucherOrders.stream().map(VoucherOrder::getUserId).collect(Collectors.toSet());
+        Set<Long> voucherIds = voucherOrders.stream().map(VoucherOrder::getVoucherId).collect(Collectors.toSet());
+        Set<String> bought = query().select("user_id", "voucher_id")
+                .in("user_id", userIds).in("voucher_id", voucherIds).list()
+                .stream().map(o -> o.getUserId() + ":" + o.getVoucherId()).collect(Collectors.toSet());
+        Map<Long, List<VoucherOrder>> ordersOfVoucher = new HashMap<>();
+        for (VoucherOrder order : voucherOrders) {
+            if (savedIds.contains(order.getId())) {
+                continue;
+            }
+            if (!bought.add(order.getUserId() + ":" + order.getVoucherId())) {
+                log.error("用户已经购买过一次！userId={}, voucherId={}", order.getUserId(), order.getVoucherId());
+                continue;
+            }
+            ordersOfVoucher.computeIfAbsent(order.getVoucherId(), k -> new ArrayList<>()).add(order);
+        }
+        // 3.按优惠券分组扣减库存 UPDATE tb_seckill_voucher SET stock = stock - n WHERE voucher_id = ? AND stock >= n
+        List<VoucherOrder> toSave = new ArrayList<>(voucherOrders.size());
+        for (Map.Entry<Long, List<VoucherOrder>> entry : ordersOfVoucher.entrySet()) {
+            List<VoucherOrder> orders = entry.getValue();
+            int n = orders.size();
+            if (decreaseStock(entry.getKey(), n)) {
+                toSave.addAll(orders);
+                continue;
+            }
+            // 库存不足整组扣减时，按剩余库存扣减 min(stock, n)，按消息顺序保存前面的订单，不让整组订单一起失败
+            SeckillVoucher voucher = seckillVoucherService.query()
+                    .select("stock")
+                    .eq("voucher_id", entry.getKey())
+                    .last("FOR UPDATE")
+                    .one();
+            int available = voucher == null || voucher.getStock() == null ? 0 : Math.min(voucher.getStock(), n);
+            if (available > 0 && decreaseStock(entry.getKey(), available)) {
+                toSave.addAll(orders.subList(0, available));
+            } else {
+                available = 0;
+            }
+            for (VoucherOrder order : orders.subList(available, n)) {
+                log.error("库存不足！orderId={}, userId={}, voucherId={}",
+                        order.getId(), order.getUserId(), order.getVoucherId());
+            }
+        }
+        // 4.多行INSERT一次保存整批订单
+        if (!toSave.isEmpty()) {
+            getBaseMapper().insertBatch(toSave);
+        }
+    }
+
+    /**
+     * UPDATE tb_seckill_voucher SET stock = stock - n WHERE voucher_id = ? AND stock >= n
+     */
+    private boolean decreaseStock(Long voucherId, int n) {
+        return seckillVoucherService.update()
+                .setSql("stock = stock - " + n)
+                .eq("voucher_id", voucherId)
+                .ge("stock", n)
+                .update();
     }
+}
 
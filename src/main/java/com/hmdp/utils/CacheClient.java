@@ -4,18 +4,35 @@ import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.hmdp.entity.Shop;
 import com.hmdp.interceptor.BloomFilterInitializer;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -24,13 +41,82 @@ import static com.hmdp.utils.RedisConstants.*;
 public class CacheClient {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
     private final static Long NULL_TTL = 2L;
     private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    /**
+     * 本地缓存中空值的占位对象
+     */
+    private static final Object NULL_VALUE = new Object();
+    /**
+     * 正在重建的key，同一节点的并发请求共享同一个重建结果
+     */
+    private static final Map<String, CompletableFuture<Object>> REBUILD_IN_FLIGHT = new ConcurrentHashMap<>();
+
+    /**
+     * 是否开启本地一级缓存
+     */
+    @Value("${hmdp.cache.local.enabled:true}")
+    private boolean localEnabled;
+    @Value("${hmdp.cache.local.maximum-size:10000}")
+    private long localMaximumSize;
+    @Value("${hmdp.cache.local.ttl-seconds:30}")
+    private long localTtlSeconds;
+
+    /**
+     * 一级缓存，key与Redis一致，value为反序列化后的对象
+     */
+    private Cache<String, Object> localCache;
+
+    @PostConstruct
+    private void init() {
+        if (!localEnabled) {
+            return;
+        }
+        localCache = Caffeine.newBuilder()
+                .maximumSize(localMaximumSize)
+                .expireAfterWrite(localTtlSeconds, TimeUnit.SECONDS)
+                .build();
+        // 订阅缓存失效消息，所有节点同时删除本地缓存
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> localCache.invalidate(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+    }
 
     public void set(String key, Object value, Long time, TimeUnit unit) {
         stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
     }
 
+    /**
+     * 删除缓存，并广播失效消息让所有节点删除本地缓存
+     */
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        if (localCache != null) {
+            localCache.invalidate(key);
+            stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+        }
+    }
+
+    /**
+     * 查询本地缓存，未命中返回null，命中空值返回NULL_VALUE
+     */
+    private Object getLocal(String key) {
+        return localCache == null ? null : localCache.getIfPresent(key);
+    }
+
+    private void putLocal(String key, Object value) {
+        if (localCache != null) {
+            localCache.put(key, value == null ? NULL_VALUE : value);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R> R unwrapNull(Object value) {
+        return value == NULL_VALUE ? null : (R) value;
+    }
+
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
         RedisData redisData = new RedisData();
         redisData.setData(value);
@@ -48,6 +134,11 @@ public class CacheClient {
     public <R, ID> R queryWithLogicalExpire(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback,
                                        Long time, TimeUnit unit) {
         String key = keyPrefix + id;
+        // 0.查询本地缓存
+        Object local = getLocal(key);
+        if (local != null) {
+            return unwrapNull(local);
+        }
         // 1.从redis查询商铺缓存
         String json = stringRedisTemplate.opsForValue().get(key);
 
@@ -63,7 +154,8 @@ public class CacheClient {
         LocalDateTime expireTime = redisData.getExpireTime();
         // 5.判断是否过期
         if (expireTime.isAfter(LocalDateTime.now())) {
-            // 5.1.未过期，直接返回
+            // 5.1.未过期，写入本地缓存并返回
+            putLocal(key, r);
             return r;
         }
         // 5.2.过期，需要缓存重建
@@ -104,60 +196,100 @@ public class CacheClient {
     public <R, ID> R queryWithMutex(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback,
                                Long time, TimeUnit unit) {
         String key = keyPrefix + id;
+        // 0.查询本地缓存
+        Object local = getLocal(key);
+        if (local != null) {
+            return unwrapNull(local);
+        }
         // 1.从redis查询商铺缓存
         String json = stringRedisTemplate.opsForValue().get(key);
 
         // 2.判断是否存在
         if (StrUtil.isNotBlank(json)) {
-            // 3.存在，直接返回
+            // 3.存在，写入本地缓存并返回
             R r = JSONUtil.toBean(json, type);
+            putLocal(key, r);
             return r;
         }
         // 判断命中的是否是空值
         if (json != null) {
+            putLocal(key, null);
             return null;
         }
-        // 4.实现缓存重建
+        // 4.实现缓存重建，同一节点对同一个key的并发未命中合并为一次重建
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = REBUILD_IN_FLIGHT.putIfAbsent(key, future);
+        if (inFlight != null) {
+            // 4.1.已有线程在重建，等待重建完成后直接返回结果，不再竞争分布式锁
+            return unwrapNull(inFlight.join());
+        }
+        try {
+            R r = rebuildWithMutex(keyPrefix, id, type, dbFallback, time, unit);
+            future.complete(r == null ? NULL_VALUE : r);
+            return r;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            REBUILD_IN_FLIGHT.remove(key, future);
+        }
+    }
+
+    private <R, ID> R rebuildWithMutex(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback,
+                                       Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
         R r = null;
-        // 4.1.获取互斥锁
+        // 4.2.获取互斥锁
         String lock = "LOCK_" + keyPrefix + id;
+        boolean isLock = false;
         try {
-
-            // 4.2.判断是否获取成功
-            while (!tryLock(lock)) {
-                // 4.3.失败则休眠并重试
+            String json;
+            // 4.3.判断是否获取成功
+            while (!(isLock = tryLock(lock))) {
+                // 4.4.失败则休眠，期间其他节点可能已经完成重建
                 Thread.sleep(50);
+                json = stringRedisTemplate.opsForValue().get(key);
+                if (json != null) {
+                    r = StrUtil.isNotBlank(json) ? JSONUtil.toBean(json, type) : null;
+                    putLocal(key, r);
+                    return r;
+                }
             }
-            // 4.4.成功，再次检查缓存是否存在
+            // 4.5.成功，再次检查缓存是否存在
             json = stringRedisTemplate.opsForValue().get(key);
             if (StrUtil.isNotBlank(json)) {
-                // 4.5.存在，直接返回
+                // 4.6.存在，写入本地缓存并返回
                 r = JSONUtil.toBean(json, type);
+                putLocal(key, r);
                 return r;
             }
             // 判断命中的是否是空值
             if (json != null) {
+                putLocal(key, null);
                 return null;
             }
-            // 4.6.不存在，查询数据库
+            // 4.7.不存在，查询数据库
             r = dbFallback.apply(id);
-            // 模拟延时
-            Thread.sleep(200);
             // 5.不存在，返回错误
             if (r == null) {
                 // 将空值写入Redis
                 stringRedisTemplate.opsForValue().set(key, "", NULL_TTL, TimeUnit.MINUTES);
+                putLocal(key, null);
                 return null;
             }
 
             // 6.存在，存入redis，增加过期时间
             this.set(key, r, time, unit);
+            putLocal(key, r);
 
         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
         } finally {
             // 7.释放互斥锁
-            unLock(lock);
+            if (isLock) {
+                unLock(lock);
+            }
         }
         // 8.返回
         return r;
@@ -168,16 +300,24 @@ public class CacheClient {
     public <R, ID> R queryWithPassThrough(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback,
                                           Long time, TimeUnit unit) {
         String key = keyPrefix + id;
+        // 0.查询本地缓存
+        Object local = getLocal(key);
+        if (local != null) {
+            return unwrapNull(local);
+        }
         // 1.从redis查询商铺缓存
         String json = stringRedisTemplate.opsForValue().get(key);
 
         // 2.判断是否存在
         if (StrUtil.isNotBlank(json)) {
-            // 3.存在，直接返回
-            return JSONUtil.toBean(json, type);
+            // 3.存在，写入本地缓存并返回
+            R r = JSONUtil.toBean(json, type);
+            putLocal(key, r);
+            return r;
         }
         // 判断命中的是否是空值
         if (json != null) {
+            putLocal(key, null);
             return null;
         }
 
@@ -187,13 +327,94 @@ public class CacheClient {
         if (r == null) {
             // 将空值写入Redis
             stringRedisTemplate.opsForValue().set(key, "", NULL_TTL, TimeUnit.MINUTES);
+            putLocal(key, null);
             return null;
         }
 
         // 6.存在，存入redis，增加过期时间
         this.set(key, r, time, unit);
+        putLocal(key, r);
         // 7..返回
         return r;
     }
 
+    /**
+     * 批量查询缓存：一次MGET，未命中的一次批量查询数据库，再用一次pipeline回写Redis
+     * @param keyPrefix key前缀
+     * @param ids id列表
+     * @param type 数据类型
+     * @param dbBatchFallback 根据未命中的id批量查询数据库
+     * @param idGetter 从数据中取出id，用于把数据库结果对应回id
+     * @return 与ids顺序一致的数据列表，不存在的数据会被跳过
+     */
+    public <R, ID> List<R> queryBatch(String keyPrefix, List<ID> ids, Class<R> type,
+                                      Function<List<ID>, List<R>> dbBatchFallback, Function<R, ID> idGetter,
+                                      Long time, TimeUnit unit) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<ID, Object> found = new HashMap<>(ids.size());
+        // 1.查询本地缓存
+        List<ID> redisIds = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            Object local = getLocal(keyPrefix + id);
+            if (local != null) {
+                found.put(id, local);
+            } else {
+                redisIds.add(id);
+            }
+        }
+        // 2.MGET查询Redis
+        List<ID> missIds = new ArrayList<>();
+        if (!redisIds.isEmpty()) {
+            List<String> keys = redisIds.stream().map(id -> keyPrefix + id).collect(Collectors.toList());
+            List<String> jsons = stringRedisTemplate.opsForValue().multiGet(keys);
+            for (int i = 0; i < redisIds.size(); i++) {
+                String json = jsons == null ? null : jsons.get(i);
+                if (json == null) {
+                    missIds.add(redisIds.get(i));
+                    continue;
+                }
+                // 命中数据或空值
+                R r = StrUtil.isNotBlank(json) ? JSONUtil.toBean(json, type) : null;
+                putLocal(keys.get(i), r);
+                found.put(redisIds.get(i), r == null ? NULL_VALUE : r);
+            }
+        }
+        // 3.未命中的批量查询数据库，并用pipeline回写Redis，不存在的写入空值
+        if (!missIds.isEmpty()) {
+            Map<ID, R> loaded = new HashMap<>(missIds.size());
+            for (R r : dbBatchFallback.apply(missIds)) {
+                loaded.put(idGetter.apply(r), r);
+            }
+            long seconds = unit.toSeconds(time);
+            long nullSeconds = TimeUnit.MINUTES.toSeconds(NULL_TTL);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                for (ID id : missIds) {
+                    R r = loaded.get(id);
+                    if (r == null) {
+                        stringConnection.setEx(keyPrefix + id, nullSeconds, "");
+                    } else {
+                        stringConnection.setEx(keyPrefix + id, seconds, JSONUtil.toJsonStr(r));
+                    }
+                }
+                return null;
+            });
+            for (ID id : missIds) {
+                R r = loaded.get(id);
+                putLocal(keyPrefix + id, r);
+                found.put(id, r == null ? NULL_VALUE : r);
+            }
+        }
+        // 4.按ids的顺序返回
+        List<R> result = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            R r = unwrapNull(found.get(id));
+            if (r != null) {
+                result.add(r);
+            }
+        }
+        return result;
+    }
 }
@@ -0,0 +1,640 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.FeedStats;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Follow;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.service.IFollowService;
+import lombok.extern.slf4j.Slf4j;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import org.redisson.api.AutoClaimResult;
+import org.redisson.api.PendingEntry;
+import org.redisson.api.RLock;
+import org.redisson.api.RStream;
+import org.redisson.api.RedissonClient;
+import org.redisson.api.StreamMessageId;
+import org.redisson.api.stream.StreamAddArgs;
+import org.redisson.api.stream.StreamCreateGroupArgs;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.FEED_TRIM_LOCK_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_BIG_AUTHOR_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_FANOUT_CHECKPOINT_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_FANOUT_CHECKPOINT_TTL;
+import static com.hmdp.utils.RedisConstants.FEED_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_OUTBOX_KEY;
+import static com.hmdp.utils.RedisConstants.FOLLOWS_KEY;
+
+/**
+ * 推拉结合的关注流：普通作者发布时推送到每个粉丝的收件箱 feed:userId，
+ * 粉丝数超过阈值的大V只写入自己的发件箱 feed:outbox:authorId，粉丝读取时再拉取并与收件箱合并。
+ * <p>
+ * 推送在事务提交后通过 stream.feed 交给后台worker异步执行，发布接口的耗时与粉丝数无关。
+ * <p>
+ * 收件箱和发件箱只保留最近的 inbox-max-size 条、retention-days 天内的博文，
+ * 滚动到保留窗口之外时从数据库查询关注作者的博文
+ */
+@Slf4j
+@Component
+public class FeedClient {
+
+    private static final int SCAN_BATCH_SIZE = 500;
+
+    /**
+     * 投递失败的推送任务的重试间隔（毫秒）
+     */
+    private static final long PUBLISH_RETRY_INTERVAL = 5000;
+
+    private static final DefaultRedisScript<List<Long>> TRIM_SCRIPT;
+
+    static {
+        TRIM_SCRIPT = new DefaultRedisScript<>();
+        TRIM_SCRIPT.setLocation(new ClassPathResource("feed_trim.lua"));
+        TRIM_SCRIPT.setResultType(listOfLong());
+    }
+
+    /**
+     * 合并排序：时间戳倒序，时间戳相同时按blogId数值倒序，与回源数据库的 ORDER BY create_time DESC, id DESC 一致
+     */
+    private static final Comparator<ZSetOperations.TypedTuple<String>> FEED_ORDER =
+            Comparator.<ZSetOperations.TypedTuple<String>, Double>comparing(ZSetOperations.TypedTuple::getScore)
+                    .thenComparingLong(tuple -> Long.parseLong(tuple.getValue()))
+                    .reversed();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IFollowService followService;
+    @Resource
+    private RedissonClient redissonClient;
+    @Resource
+    private BlogMapper blogMapper;
+
+    /**
+     * 粉丝数达到该值的作者不再推送收件箱，改为粉丝读取时拉取发件箱
+     */
+    @Value("${hmdp.feed.push-threshold:5000}")
+    private long pushThreshold;
+
+    /**
+     * 每个节点的推送worker数量
+     */
+    @Value("${hmdp.feed.worker-count:2}")
+    private int workerCount;
+
+    /**
+     * 每次从tb_follow读取并推送的粉丝数量
+     */
+    @Value("${hmdp.feed.fanout-batch-size:1000}")
+    private int fanoutBatchSize;
+
+    /**
+     * 推送任务空闲超过该时长（毫秒）后由其他worker接管，从检查点继续推送
+     */
+    @Value("${hmdp.feed.reclaim-min-idle:60000}")
+    private long reclaimMinIdle;
+
+    /**
+     * 推送任务最大投递次数，超过后转入死信队列
+     */
+    @Value("${hmdp.feed.max-deliveries:5}")
+    private int maxDeliveries;
+
+    /**
+     * 每个收件箱/发件箱最多保留的博文数，写入时按排名裁剪
+     */
+    @Value("${hmdp.feed.inbox-max-size:1000}")
+    private long inboxMaxSize;
+
+    /**
+     * 收件箱/发件箱保留的天数，由后台任务按时间戳裁剪
+     */
+    @Value("${hmdp.feed.retention-days:30}")
+    private long retentionDays;
+
+    /**
+     * 裁剪任务的执行间隔（毫秒）
+     */
+    @Value("${hmdp.feed.trim-interval:3600000}")
+    private long trimInterval;
+
+    private volatile FeedStats feedStats = new FeedStats();
+
+    String queueName = "stream.feed";
+    String groupName = "g1";
+    String deadLetterQueueName = "stream.feed.dlq";
+
+    /**
+     * 投递到 stream.feed 失败（如提交事务后Redis不可用）的推送任务，由后台定时重新投递
+     */
+    private final Queue<Map<String, String>> failedPublishes = new ConcurrentLinkedQueue<>();
+
+    private ExecutorService fanoutExecutor;
+
+    private ScheduledExecutorService fanoutReclaimExecutor;
+
+    @PostConstruct
+    private void init() {
+        RStream<String, String> stream = redissonClient.getStream(queueName, StringCodec.INSTANCE);
+        try {
+            // XGROUP CREATE stream.feed g1 0 MKSTREAM
+            stream.createGroup(StreamCreateGroupArgs.name(groupName).id(StreamMessageId.ALL).makeStream());
+        } catch (Exception e) {
+            // 消费者组已存在
+            log.debug("消费者组已存在，stream={}, group={}", queueName, groupName);
+        }
+        String prefix = NetUtil.getLocalHostName();
+        fanoutExecutor = Executors.newFixedThreadPool(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            fanoutExecutor.submit(new FanoutWorker(prefix + "-f" + i));
+        }
+        fanoutReclaimExecutor = Executors.newSingleThreadScheduledExecutor();
+        fanoutReclaimExecutor.scheduleWithFixedDelay(() -> reclaim(prefix + "-f-reclaimer"),
+                reclaimMinIdle, reclaimMinIdle / 2, TimeUnit.MILLISECONDS);
+        fanoutReclaimExecutor.scheduleWithFixedDelay(this::retryPublishes,
+                PUBLISH_RETRY_INTERVAL, PUBLISH_RETRY_INTERVAL, TimeUnit.MILLISECONDS);
+        fanoutReclaimExecutor.scheduleWithFixedDelay(this::trimExpired,
+                trimInterval, trimInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        fanoutExecutor.shutdownNow();
+        fanoutReclaimExecutor.shutdownNow();
+        if (!failedPublishes.isEmpty()) {
+            // 进程退出后重试队列丢失，记录下来以便人工重新推送
+            log.error("关注流推送任务未能投递，需要重新推送，blogIds={}",
+                    failedPublishes.stream().map(task -> task.get("blogId")).toList());
+        }
+    }
+
+    /**
+     * 发布博文到关注流。处于事务中时等提交后再投递推送任务，避免事务回滚后仍然推送
+     */
+    public void publish(Blog blog) {
+        Map<String, String> task = new HashMap<>(4);
+        task.put("blogId", blog.getId().toString());
+        task.put("authorId", blog.getUserId().toString());
+        // 使用博文的创建时间作为score，保证超出保留窗口后回源数据库时滚动位置一致
+        LocalDateTime createTime = blog.getCreateTime() != null ? blog.getCreateTime() : LocalDateTime.now();
+        task.put("time", String.valueOf(toEpochMilli(createTime)));
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            enqueue(task);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                enqueue(task);
+            }
+        });
+    }
+
+    private void enqueue(Map<String, String> task) {
+        try {
+            // XADD stream.feed * blogId .. authorId .. time ..
+            stringRedisTemplate.opsForStream().add(StreamRecords.string(task).withStreamKey(queueName));
+        } catch (Exception e) {
+            // 博文已经落库，不能让推送任务丢失，放入重试队列稍后重新投递
+            failedPublishes.add(task);
+            log.error("投递关注流推送任务失败，稍后重试，blogId={}", task.get("blogId"), e);
+        }
+    }
+
+    /**
+     * 按顺序重新投递失败的推送任务，遇到失败就停止，等下一次重试
+     */
+    private void retryPublishes() {
+        Map<String, String> task;
+        while ((task = failedPublishes.peek()) != null) {
+            try {
+                stringRedisTemplate.opsForStream().add(StreamRecords.string(task).withStreamKey(queueName));
+            } catch (Exception e) {
+                log.warn("重新投递关注流推送任务失败，剩余 {} 个，blogId={}", failedPublishes.size(), task.get("blogId"), e);
+                return;
+            }
+            failedPublishes.poll();
+            log.info("重新投递关注流推送任务成功，blogId={}", task.get("blogId"));
+        }
+    }
+
+    private class FanoutWorker implements Runnable {
+        private final String consumerName;
+
+        FanoutWorker(String consumerName) {
+            this.consumerName = consumerName;
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    // XREADGROUP GROUP g1 fN COUNT 1 BLOCK 2000 STREAMS stream.feed >
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(groupName, consumerName),
+                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
+                            StreamOffset.create(queueName, ReadOffset.lastConsumed())
+                    );
+                    if (list == null || list.isEmpty()) {
+                        continue;
+                    }
+                    MapRecord<String, Object, Object> record = list.get(0);
+                    Map<Object, Object> values = record.getValue();
+                    fanOut((String) values.get("blogId"), Long.valueOf((String) values.get("authorId")),
+                            Long.parseLong((String) values.get("time")));
+                    // XACK stream.feed g1 id
+                    stringRedisTemplate.opsForStream().acknowledge(queueName, groupName, record.getId());
+                } catch (Exception e) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        break;
+                    }
+                    // 失败的任务留在pending-list中，由reclaim从检查点继续推送
+                    log.error("推送关注流异常", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 接管空闲过久的推送任务 XAUTOCLAIM，原worker宕机时从检查点继续推送；
+     * 投递次数超过上限的任务转入死信队列 stream.feed.dlq，避免坏消息被无限重试
+     */
+    private void reclaim(String consumerName) {
+        try {
+            RStream<String, String> stream = redissonClient.getStream(queueName, StringCodec.INSTANCE);
+            StreamMessageId cursor = new StreamMessageId(0, 0);
+            do {
+                AutoClaimResult<String, String> result = stream.autoClaim(
+                        groupName, consumerName, reclaimMinIdle, TimeUnit.MILLISECONDS, cursor, 10);
+                cursor = result.getNextId();
+                Map<StreamMessageId, Map<String, String>> messages = result.getMessages();
+                if (messages == null || messages.isEmpty()) {
+                    continue;
+                }
+                // 查询投递次数 XPENDING stream.feed g1 firstId lastId n reclaimer
+                List<StreamMessageId> ids = new ArrayList<>(messages.keySet());
+                ids.sort(Comparator.comparingLong(StreamMessageId::getId0).thenComparingLong(StreamMessageId::getId1));
+                Map<StreamMessageId, Long> deliveries = new HashMap<>(messages.size());
+                for (PendingEntry entry : stream.listPending(groupName, consumerName,
+                        ids.get(0), ids.get(ids.size() - 1), ids.size())) {
+                    deliveries.put(entry.getId(), entry.getLastTimeDelivered());
+                }
+                for (Map.Entry<StreamMessageId, Map<String, String>> message : messages.entrySet()) {
+                    long count = deliveries.getOrDefault(message.getKey(), 0L);
+                    if (count > maxDeliveries) {
+                        moveToDeadLetter(stream, message.getKey(), message.getValue(), count);
+                        continue;
+                    }
+                    Map<String, String> values = message.getValue();
+                    try {
+                        fanOut(values.get("blogId"), Long.valueOf(values.get("authorId")), Long.parseLong(values.get("time")));
+                        stream.ack(groupName, message.getKey());
+                    } catch (Exception e) {
+                        // 留在pending-list中等待下一次接管，不影响同一批的其他任务
+                        log.error("重试推送任务失败，id={}", message.getKey(), e);
+                    }
+                }
+            } while (!cursor.equals(new StreamMessageId(0, 0)));
+        } catch (Exception e) {
+            // 异常不能抛出，否则定时任务会被取消
+            log.error("接管推送任务异常", e);
+        }
+    }
+
+    private void moveToDeadLetter(RStream<String, String> stream, StreamMessageId id,
+                                  Map<String, String> values, long deliveries) {
+        Map<String, String> deadLetter = new HashMap<>(values);
+        deadLetter.put("sourceId", id.toString());
+        deadLetter.put("deliveries", String.valueOf(deliveries));
+        // XADD stream.feed.dlq * ... 然后 XACK，原消息不再投递
+        redissonClient.<String, String>getStream(deadLetterQueueName, StringCodec.INSTANCE)
+                .add(StreamAddArgs.entries(deadLetter));
+        stream.ack(groupName, id);
+        log.error("推送任务超过最大投递次数，转入死信队列，id={}, values={}", id, values);
+    }
+
+    /**
+     * 推送一篇博文：按tb_follow.id分批读取粉丝，每批一次pipeline ZADD，每批完成后记录检查点。
+     * ZADD是幂等的，宕机后从检查点重做最后一批不会产生重复
+     */
+    private void fanOut(String blogId, Long authorId, long time) {
+        if (isBigAuthor(authorId)) {
+            // 大V只写发件箱
+            String outboxKey = FEED_OUTBOX_KEY + authorId;
+            stringRedisTemplate.opsForZSet().add(outboxKey, blogId, time);
+            stringRedisTemplate.opsForZSet().removeRange(outboxKey, 0, -inboxMaxSize - 1);
+            return;
+        }
+        String checkpointKey = FEED_FANOUT_CHECKPOINT_KEY + blogId;
+        String checkpoint = stringRedisTemplate.opsForValue().get(checkpointKey);
+        long lastId = StrUtil.isBlank(checkpoint) ? 0 : Long.parseLong(checkpoint);
+        long begin = System.currentTimeMillis();
+        int pushed = 0;
+        while (true) {
+            // SELECT id, user_id FROM tb_follow WHERE follow_user_id = ? AND id > ? ORDER BY id LIMIT n
+            List<Follow> follows = followService.query()
+                    .select("id", "user_id")
+                    .eq("follow_user_id", authorId)
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + fanoutBatchSize)
+                    .list();
+            if (follows.isEmpty()) {
+                break;
+            }
+            lastId = follows.get(follows.size() - 1).getId();
+            String nextCheckpoint = String.valueOf(lastId);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                for (Follow follow : follows) {
+                    String key = FEED_KEY + follow.getUserId();
+                    stringConnection.zAdd(key, time, blogId);
+                    // 只保留最新的 inboxMaxSize 条 ZREMRANGEBYRANK key 0 -(n+1)
+                    stringConnection.zRemRange(key, 0, -inboxMaxSize - 1);
+                }
+                stringConnection.setEx(checkpointKey, FEED_FANOUT_CHECKPOINT_TTL, nextCheckpoint);
+                return null;
+            });
+            pushed += follows.size();
+            if (follows.size() < fanoutBatchSize) {
+                break;
+            }
+        }
+        stringRedisTemplate.delete(checkpointKey);
+        log.debug("推送博文完成，blogId={}，粉丝 {} 个，耗时 {} ms", blogId, pushed, System.currentTimeMillis() - begin);
+    }
+
+    /**
+     * 查询关注流，语义与 ZREVRANGEBYSCORE feed:userId max 0 WITHSCORES LIMIT offset count 一致，
+     * 数据来源为收件箱以及所有关注的大V的发件箱
+     */
+    public List<ZSetOperations.TypedTuple<String>> queryFeed(Long userId, long max, int offset, int count) {
+        List<String> keys = new ArrayList<>();
+        keys.add(FEED_KEY + userId);
+        Set<String> bigAuthors = stringRedisTemplate.opsForSet().intersect(FOLLOWS_KEY + userId, FEED_BIG_AUTHOR_KEY);
+        if (bigAuthors != null) {
+            for (String authorId : bigAuthors) {
+                keys.add(FEED_OUTBOX_KEY + authorId);
+            }
+        }
+        // 每个来源最多取 offset + count 条，合并后再跳过offset
+        long limit = (long) offset + count;
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (String key : keys) {
+                stringConnection.zRevRangeByScoreWithScores(key, 0, max, 0, limit);
+            }
+            return null;
+        });
+        List<ZSetOperations.TypedTuple<String>> sorted = merge(results);
+        List<ZSetOperations.TypedTuple<String>> page = page(sorted, offset, count);
+        if (page.size() < count) {
+            // 每个来源都不足limit条，说明max之前的收件箱和发件箱已经全部读完，剩余部分从数据库补齐：
+            // 从Redis中的最后一条之后继续查询，Redis中的条数不足offset时，剩余的offset在数据库中跳过
+            ZSetOperations.TypedTuple<String> last = sorted.isEmpty() ? null : sorted.get(sorted.size() - 1);
+            int dbOffset = Math.max(0, offset - sorted.size());
+            page.addAll(queryFeedFromDb(userId, max, last, dbOffset, count - page.size()));
+        }
+        return page;
+    }
+
+    /**
+     * 合并多个来源的结果并去重，同一篇博文可能既在收件箱又在发件箱（作者刚成为大V时），按 FEED_ORDER 排序
+     */
+    static List<ZSetOperations.TypedTuple<String>> merge(List<Object> results) {
+        Map<String, ZSetOperations.TypedTuple<String>> merged = new LinkedHashMap<>();
+        for (Object result : results) {
+            if (result == null) {
+                continue;
+            }
+            @SuppressWarnings("unchecked")
+            Collection<ZSetOperations.TypedTuple<String>> tuples = (Collection<ZSetOperations.TypedTuple<String>>) result;
+            for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                merged.putIfAbsent(tuple.getValue(), tuple);
+            }
+        }
+        List<ZSetOperations.TypedTuple<String>> sorted = new ArrayList<>(merged.values());
+        sorted.sort(FEED_ORDER);
+        return sorted;
+    }
+
+    /**
+     * 跳过offset条后取count条
+     */
+    static List<ZSetOperations.TypedTuple<String>> page(List<ZSetOperations.TypedTuple<String>> sorted,
+                                                      int offset, int count) {
+        if (offset >= sorted.size()) {
+            return new ArrayList<>(count);
+        }
+        return new ArrayList<>(sorted.subList(offset, Math.min(sorted.size(), offset + count)));
+    }
+
+    /**
+     * 回源数据库：查询关注的作者在max之前发布的博文，顺序与 FEED_ORDER 一致。
+     * after不为空时只查询排在after之后的博文，即 create_time < t，或 create_time = t 且 id < blogId
+     */
+    private List<ZSetOperations.TypedTuple<String>> queryFeedFromDb(Long userId, long max,
+                                                                   ZSetOperations.TypedTuple<String> after,
+                                                                   int offset, int count) {
+        List<Long> authorIds = followService.query()
+                .select("follow_user_id")
+                .eq("user_id", userId)
+                .list()
+                .stream()
+                .map(Follow::getFollowUserId)
+                .toList();
+        if (authorIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        QueryWrapper<Blog> wrapper = new QueryWrapper<Blog>()
+                .select("id", "create_time")
+                .in("user_id", authorIds)
+                .le("create_time", toLocalDateTime(max));
+        if (after != null) {
+            LocalDateTime afterTime = toLocalDateTime(after.getScore().longValue());
+            long afterId = Long.parseLong(after.getValue());
+            wrapper.and(w -> w.lt("create_time", afterTime)
+                    .or(o -> o.eq("create_time", afterTime).lt("id", afterId)));
+        }
+        List<Blog> blogs = blogMapper.selectList(wrapper
+                .orderByDesc("create_time", "id")
+                .last("LIMIT " + offset + ", " + count));
+        List<ZSetOperations.TypedTuple<String>> tuples = new ArrayList<>(blogs.size());
+        for (Blog blog : blogs) {
+            tuples.add(new DefaultTypedTuple<>(blog.getId().toString(), (double) toEpochMilli(blog.getCreateTime())));
+        }
+        return tuples;
+    }
+
+    /**
+     * 按保留天数裁剪所有收件箱和发件箱 ZREMRANGEBYSCORE key 0 deadline，同时统计关注流占用的内存
+     */
+    private void trimExpired() {
+        RLock lock = redissonClient.getLock(FEED_TRIM_LOCK_KEY);
+        try {
+            if (!lock.tryLock()) {
+                // 其他节点正在裁剪
+                return;
+            }
+            long begin = System.currentTimeMillis();
+            long deadline = begin - TimeUnit.DAYS.toMillis(retentionDays);
+            long keys = 0, entries = 0, memory = 0;
+            List<String> batch = new ArrayList<>(SCAN_BATCH_SIZE);
+            try (Cursor<String> cursor = stringRedisTemplate.scan(
+                    ScanOptions.scanOptions().match(FEED_KEY + "*").count(SCAN_BATCH_SIZE).build())) {
+                while (cursor.hasNext()) {
+                    String key = cursor.next();
+                    if (isFeedBox(key)) {
+                        batch.add(key);
+                    }
+                    if (batch.size() >= SCAN_BATCH_SIZE || !cursor.hasNext()) {
+                        long[] stats = trimBatch(batch, deadline);
+                        keys += batch.size();
+                        entries += stats[0];
+                        memory += stats[1];
+                        batch.clear();
+                    }
+                }
+            }
+            FeedStats stats = new FeedStats();
+            stats.setTrimmedAt(System.currentTimeMillis());
+            stats.setKeyCount(keys);
+            stats.setEntryCount(entries);
+            stats.setMemoryBytes(memory);
+            feedStats = stats;
+            log.info("关注流裁剪完成，收件箱/发件箱 {} 个，博文 {} 条，占用内存 {} 字节，耗时 {} ms",
+                    keys, entries, memory, stats.getTrimmedAt() - begin);
+        } catch (Exception e) {
+            // 异常不能抛出，否则定时任务会被取消
+            log.error("裁剪关注流异常", e);
+        } finally {
+            if (lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 一次pipeline裁剪一批key，返回裁剪后的博文数和内存占用。
+     * 每个key单独执行一次lua脚本，集群下各key按slot路由，不会CROSSSLOT
+     */
+    private long[] trimBatch(List<String> keys, long deadline) {
+        if (keys.isEmpty()) {
+            return new long[]{0, 0};
+        }
+        String script = TRIM_SCRIPT.getScriptAsString();
+        String deadlineArg = String.valueOf(deadline);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (String key : keys) {
+                stringConnection.eval(script, ReturnType.MULTI, 1, key, deadlineArg);
+            }
+            return null;
+        });
+        long entries = 0, memory = 0;
+        for (Object result : results) {
+            if (result instanceof List && ((List<?>) result).size() >= 2) {
+                List<?> stats = (List<?>) result;
+                entries += toLong(stats.get(0));
+                memory += toLong(stats.get(1));
+            }
+        }
+        return new long[]{entries, memory};
+    }
+
+    /**
+     * 最近一次裁剪时统计的收件箱、发件箱数量和内存占用，还未裁剪过时各项为空
+     */
+    public FeedStats getFeedStats() {
+        return feedStats;
+    }
+
+    /**
+     * 只处理收件箱 feed:userId 和发件箱 feed:outbox:authorId
+     */
+    private static boolean isFeedBox(String key) {
+        String id = key.startsWith(FEED_OUTBOX_KEY)
+                ? key.substring(FEED_OUTBOX_KEY.length())
+                : key.substring(FEED_KEY.length());
+        return StrUtil.isNumeric(id);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<List<Long>> listOfLong() {
+        return (Class<List<Long>>) (Class<?>) List.class;
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0L;
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static LocalDateTime toLocalDateTime(long epochMilli) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMilli), ZoneId.systemDefault());
+    }
+
+    /**
+     * 判断作者是否为大V，大V身份一旦确定就不再回退，保证发件箱中的历史博文始终会被粉丝拉取到
+     */
+    private boolean isBigAuthor(Long authorId) {
+        String member = authorId.toString();
+        if (Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(FEED_BIG_AUTHOR_KEY, member))) {
+            return true;
+        }
+        Integer fans = followService.query().eq("follow_user_id", authorId).count();
+        if (fans != null && fans >= pushThreshold) {
+            stringRedisTemplate.opsForSet().add(FEED_BIG_AUTHOR_KEY, member);
+            log.info("作者粉丝数达到 {}，关注流改为拉模式，authorId={}", fans, authorId);
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,249 @@
+package com.hmdp.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 不可变的网格空间索引：点按所在网格排序后存放在基本类型数组中，每个网格对应数组中的一段区间，
+ * 半径查询只需扫描与查询范围相交的网格。
+ * <p>
+ * 每个点预先换算成单位球面上的三维坐标，弦长的平方与球面距离单调对应，扫描时只做乘加比较，
+ * 只对最终返回的点计算球面距离，结果与Redis GEO的距离公式一致
+ */
+public class GeoGrid {
+
+    /**
+     * 经度的半个周期（度）
+     */
+    private static final double MAX_SPAN = 180;
+
+    private final double cellSize;
+    private final long[] ids;
+    private final double[] px;
+    private final double[] py;
+    private final double[] pz;
+    /**
+     * 网格编号 -> {起始下标, 结束下标}
+     */
+    private final Map<Long, int[]> cells;
+
+    private GeoGrid(double cellSize, long[] ids, double[] px, double[] py, double[] pz, Map<Long, int[]> cells) {
+        this.cellSize = cellSize;
+        this.ids = ids;
+        this.px = px;
+        this.py = py;
+        this.pz = pz;
+        this.cells = cells;
+    }
+
+    /**
+     * 构建索引，超出Redis GEO坐标范围的点会被忽略
+     *
+     * @param cellSize 网格边长（度）
+     */
+    public static GeoGrid build(long[] ids, double[] xs, double[] ys, double cellSize) {
+        long[] keys = new long[ids.length];
+        Integer[] valid = new Integer[ids.length];
+        int n = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (GeoUtils.isValid(xs[i], ys[i])) {
+                keys[i] = cellKey(cell(xs[i], cellSize), cell(ys[i], cellSize));
+                valid[n++] = i;
+            }
+        }
+        Integer[] order = Arrays.copyOf(valid, n);
+        Arrays.sort(order, Comparator.comparingLong(i -> keys[i]));
+        long[] sortedIds = new long[n];
+        double[] px = new double[n];
+        double[] py = new double[n];
+        double[] pz = new double[n];
+        Map<Long, int[]> cells = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            int j = order[i];
+            sortedIds[i] = ids[j];
+            double lon = Math.toRadians(xs[j]);
+            double lat = Math.toRadians(ys[j]);
+            px[i] = Math.cos(lat) * Math.cos(lon);
+            py[i] = Math.cos(lat) * Math.sin(lon);
+            pz[i] = Math.sin(lat);
+            int index = i;
+            cells.computeIfAbsent(keys[j], k -> new int[]{index, index})[1] = i + 1;
+        }
+        return new GeoGrid(cellSize, sortedIds, px, py, pz, cells);
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * 查询半径范围内的点，按距离升序返回最近的limit个
+     *
+     * @param radius 半径（米）
+     * @throws IllegalArgumentException 坐标超出Redis GEO支持的范围，与 GEOSEARCH 的行为一致
+     */
+    public List<Hit> search(double x, double y, double radius, int limit) {
+        if (!GeoUtils.isValid(x, y)) {
+            throw new IllegalArgumentException("坐标超出范围：" + x + "," + y);
+        }
+        // 半径换算成经纬度范围：纬度方向为球冠的角半径，经度方向为球冠在该纬度的经度半宽，
+        // 球冠覆盖极点时经度方向为全部范围
+        double angle = Math.min(radius / GeoUtils.EARTH_RADIUS, Math.PI);
+        double dy = Math.toDegrees(angle);
+        double dx = Math.abs(y) + dy >= 90
+                ? MAX_SPAN
+                : Math.toDegrees(Math.asin(Math.sin(angle) / Math.cos(Math.toRadians(y))));
+        long minCy = cell(Math.max(y - dy, -GeoUtils.MAX_LATITUDE), cellSize);
+        long maxCy = cell(Math.min(y + dy, GeoUtils.MAX_LATITUDE), cellSize);
+        double lon = Math.toRadians(x);
+        double lat = Math.toRadians(y);
+        double qx = Math.cos(lat) * Math.cos(lon);
+        double qy = Math.cos(lat) * Math.sin(lon);
+        double qz = Math.sin(lat);
+        double maxChord = 2 * Math.sin(angle / 2);
+        double maxChord2 = maxChord * maxChord;
+        // 大顶堆保存当前最近的limit个点，堆顶是其中最远的
+        TopK topK = new TopK(limit);
+        // 经度范围跨过±180度时拆成两段，两段在同一个网格中相遇时直接扫描全部经度
+        List<long[]> lonRanges = new ArrayList<>(2);
+        if (2 * dx + cellSize >= 2 * MAX_SPAN) {
+            lonRanges.add(new long[]{cell(-MAX_SPAN, cellSize), cell(MAX_SPAN, cellSize)});
+        } else {
+            lonRanges.add(new long[]{cell(Math.max(x - dx, -MAX_SPAN), cellSize), cell(Math.min(x + dx, MAX_SPAN), cellSize)});
+            if (x - dx < -MAX_SPAN) {
+                lonRanges.add(new long[]{cell(x - dx + 2 * MAX_SPAN, cellSize), cell(MAX_SPAN, cellSize)});
+            }
+            if (x + dx > MAX_SPAN) {
+                lonRanges.add(new long[]{cell(-MAX_SPAN, cellSize), cell(x + dx - 2 * MAX_SPAN, cellSize)});
+            }
+        }
+        long cellCount = 0;
+        for (long[] lonRange : lonRanges) {
+            cellCount += (lonRange[1] - lonRange[0] + 1) * (maxCy - minCy + 1);
+        }
+        if (cellCount > cells.size()) {
+            // 查询范围内的网格比非空网格还多（半径很大），直接扫描所有点，耗时不超过O(n)
+            scan(0, ids.length, qx, qy, qz, maxChord2, topK);
+        } else {
+            for (long[] lonRange : lonRanges) {
+                for (long cx = lonRange[0]; cx <= lonRange[1]; cx++) {
+                    for (long cy = minCy; cy <= maxCy; cy++) {
+                        int[] range = cells.get(cellKey(cx, cy));
+                        if (range != null) {
+                            scan(range[0], range[1], qx, qy, qz, maxChord2, topK);
+                        }
+                    }
+                }
+            }
+        }
+        // 按距离升序输出，弦长换算成球面距离
+        int size = topK.size;
+        Hit[] hits = new Hit[size];
+        for (int k = size - 1; k >= 0; k--) {
+            double chord2 = topK.keys[0];
+            int i = topK.poll();
+            hits[k] = new Hit(ids[i], 2 * GeoUtils.EARTH_RADIUS * Math.asin(Math.sqrt(chord2) / 2));
+        }
+        return Arrays.asList(hits);
+    }
+
+    /**
+     * 扫描下标 [from, to) 的点，弦长平方不超过maxChord2的放入topK
+     */
+    private void scan(int from, int to, double qx, double qy, double qz, double maxChord2, TopK topK) {
+        for (int i = from; i < to; i++) {
+            double ddx = px[i] - qx, ddy = py[i] - qy, ddz = pz[i] - qz;
+            double chord2 = ddx * ddx + ddy * ddy + ddz * ddz;
+            if (chord2 <= maxChord2) {
+                topK.offer(chord2, i);
+            }
+        }
+    }
+
+    private static long cell(double value, double cellSize) {
+        return (long) Math.floor(value / cellSize);
+    }
+
+    private static long cellKey(long cx, long cy) {
+        return cx << 32 ^ (cy & 0xffffffffL);
+    }
+
+    /**
+     * 基于基本类型数组的定长大顶堆
+     */
+    private static class TopK {
+        private final double[] keys;
+        private final int[] values;
+        private int size;
+
+        TopK(int capacity) {
+            keys = new double[Math.max(capacity, 0)];
+            values = new int[Math.max(capacity, 0)];
+        }
+
+        void offer(double key, int value) {
+            if (size < keys.length) {
+                // 未满，上浮
+                int i = size++;
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+                    if (keys[parent] >= key) {
+                        break;
+                    }
+                    keys[i] = keys[parent];
+                    values[i] = values[parent];
+                    i = parent;
+                }
+                keys[i] = key;
+                values[i] = value;
+            } else if (size > 0 && key < keys[0]) {
+                // 已满且比堆顶更近，替换堆顶
+                siftDown(key, value);
+            }
+        }
+
+        int poll() {
+            int top = values[0];
+            size--;
+            if (size > 0) {
+                siftDown(keys[size], values[size]);
+            }
+            return top;
+        }
+
+        private void siftDown(double key, int value) {
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && keys[child + 1] > keys[child]) {
+                    child++;
+                }
+                if (keys[child] <= key) {
+                    break;
+                }
+                keys[i] = keys[child];
+                values[i] = values[child];
+                i = child;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class Hit {
+        private long id;
+        private double distance;
+    }
+}
@@ -0,0 +1,47 @@
+package com.hmdp.utils;
+
+/**
+ * 经纬度计算工具，与Redis GEO命令使用相同的地球半径和球面距离公式
+ */
+public class GeoUtils {
+    /**
+     * Redis GEO使用的地球半径（米）
+     */
+    public static final double EARTH_RADIUS = 6372797.560856;
+
+    /**
+     * Redis GEO支持的纬度范围，超出范围的坐标 GEOADD/GEOSEARCH 会直接报错
+     */
+    public static final double MAX_LATITUDE = 85.05112878;
+
+    public static final double MAX_LONGITUDE = 180;
+
+    /**
+     * 坐标是否在Redis GEO支持的范围内
+     */
+    public static boolean isValid(double x, double y) {
+        return Math.abs(x) <= MAX_LONGITUDE && Math.abs(y) <= MAX_LATITUDE;
+    }
+
+    /**
+     * 计算两点之间的球面距离（米）
+     *
+     * @param x1 经度
+     * @param y1 纬度
+     */
+    public static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2.0 * EARTH_RADIUS * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+    }
+
+    /**
+     * 把坐标舍入到网格，精度为小数点后scale位，同一网格内的查询共享一份搜索结果
+     */
+    public static double roundToCell(double value, int scale) {
+        double factor = Math.pow(10, scale);
+        return Math.round(value * factor) / factor;
+    }
+}
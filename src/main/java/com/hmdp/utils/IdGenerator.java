@@ -0,0 +1,13 @@
+package com.hmdp.utils;
+
+/**
+ * 全局唯一id生成策略，通过 hmdp.id-worker.strategy 选择 redis（默认）或 snowflake
+ */
+public interface IdGenerator {
+    /**
+     * 生成下一个id
+     * @param keyPrefix 业务前缀
+     * @return 全局唯一id
+     */
+    long nextId(String keyPrefix);
+}
@@ -0,0 +1,175 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.collection.CollUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_LOGOUT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
+
+/**
+ * 登录会话的本地缓存：token -> UserDTO，命中时请求鉴权不再访问Redis。
+ * 退出登录时通过 login:logout:channel 广播，所有节点同时删除本地会话。
+ * <p>
+ * token有效期的滑动刷新也不在请求线程中执行：每个token每 ttl-refresh-interval 秒最多登记一次，
+ * 由后台任务批量 pipeline EXPIRE
+ */
+@Slf4j
+@Component
+public class LoginSessionCache {
+
+    private static final int REFRESH_BATCH_SIZE = 500;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${hmdp.login.session-cache.maximum-size:100000}")
+    private long maximumSize;
+
+    /**
+     * 本地会话的过期秒数，也是其他节点退出登录消息丢失时本地会话最长的残留时间
+     */
+    @Value("${hmdp.login.session-cache.ttl-seconds:60}")
+    private long ttlSeconds;
+
+    /**
+     * 同一个token两次刷新有效期的最小间隔（秒）
+     */
+    @Value("${hmdp.login.ttl-refresh-interval:300}")
+    private long ttlRefreshInterval;
+
+    /**
+     * 批量刷新有效期的执行间隔（毫秒）
+     */
+    @Value("${hmdp.login.ttl-flush-interval:1000}")
+    private long ttlFlushInterval;
+
+    private Cache<String, UserDTO> sessions;
+
+    /**
+     * 最近已登记刷新的token，写入 ttlRefreshInterval 秒后过期，过期后才会再次登记
+     */
+    private Cache<String, Boolean> refreshed;
+
+    /**
+     * 等待刷新有效期的token
+     */
+    private final Set<String> pendingRefresh = ConcurrentHashMap.newKeySet();
+
+    private ScheduledExecutorService ttlFlushExecutor;
+
+    @PostConstruct
+    private void init() {
+        sessions = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .build();
+        refreshed = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttlRefreshInterval, TimeUnit.SECONDS)
+                .build();
+        ttlFlushExecutor = Executors.newSingleThreadScheduledExecutor();
+        ttlFlushExecutor.scheduleWithFixedDelay(this::flushTtl, ttlFlushInterval, ttlFlushInterval, TimeUnit.MILLISECONDS);
+        // 订阅退出登录消息，消息内容为token
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> sessions.invalidate(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(LOGIN_LOGOUT_CHANNEL));
+    }
+
+    @PreDestroy
+    private void destroy() {
+        ttlFlushExecutor.shutdownNow();
+        // 停机前把已登记的token刷新掉
+        flushTtl();
+    }
+
+    /**
+     * 查询登录用户，本地未命中时 HGETALL login:token:token 并写入本地缓存，本地命中时不访问Redis
+     *
+     * @return 登录用户，token无效时返回null
+     */
+    public UserDTO get(String token) {
+        UserDTO user = sessions.getIfPresent(token);
+        if (user == null) {
+            Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(LOGIN_USER_KEY + token);
+            if (userMap.isEmpty()) {
+                return null;
+            }
+            user = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
+            sessions.put(token, user);
+        }
+        // 缓存对象会被多个请求共享，复制后再交给当前请求
+        return BeanUtil.copyProperties(user, UserDTO.class);
+    }
+
+    /**
+     * 登记token的有效期需要刷新，同一个token在 ttlRefreshInterval 秒内只登记一次，不访问Redis
+     */
+    public void touch(String token) {
+        if (refreshed.asMap().putIfAbsent(token, Boolean.TRUE) == null) {
+            pendingRefresh.add(token);
+        }
+    }
+
+    /**
+     * 删除本地会话，并广播让所有节点删除
+     */
+    public void evict(String token) {
+        sessions.invalidate(token);
+        pendingRefresh.remove(token);
+        stringRedisTemplate.convertAndSend(LOGIN_LOGOUT_CHANNEL, token);
+    }
+
+    /**
+     * 批量刷新已登记token的有效期，每批一次pipeline
+     */
+    private void flushTtl() {
+        try {
+            if (pendingRefresh.isEmpty()) {
+                return;
+            }
+            List<String> tokens = new ArrayList<>(pendingRefresh);
+            pendingRefresh.removeAll(tokens);
+            for (List<String> batch : CollUtil.split(tokens, REFRESH_BATCH_SIZE)) {
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                    for (String token : batch) {
+                        // 已退出登录的token不存在，EXPIRE不会重新创建
+                        stringConnection.expire(LOGIN_USER_KEY + token, LOGIN_USER_TTL);
+                    }
+                    return null;
+                });
+            }
+            log.debug("批量刷新token有效期 {} 个", tokens.size());
+        } catch (Exception e) {
+            // 异常不能抛出，否则定时任务会被取消
+            log.error("批量刷新token有效期异常", e);
+        }
+    }
+}
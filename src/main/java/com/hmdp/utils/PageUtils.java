@@ -0,0 +1,75 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
+import com.hmdp.dto.SliceResult;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 不查询总数的分页工具，替代 page(new Page<>(current, size)) 带来的 SELECT COUNT(*)。
+ * 所有分页都按主键id升序，id随插入递增，与create_time顺序一致
+ */
+public class PageUtils {
+
+    /**
+     * 按页码分页。页码较大时先只查id定位到本页第一条（走索引，不回表），再从该id向后seek，
+     * 避免 LIMIT offset, size 扫描并回表offset行完整数据。
+     * 定位第一条的 LIMIT offset, 1 仍然要扫描offset条索引，深分页的开销随页码线性增长，
+     * 需要深翻页的场景应使用 {@link #seek} 按id游标分页
+     *
+     * @param query    每次调用返回一个新的、已带好过滤条件的查询
+     * @param idGetter 获取实体id
+     */
+    public static <T> SliceResult slice(Supplier<QueryChainWrapper<T>> query, Integer current, int size,
+                                        Function<T, Long> idGetter) {
+        long offset = (long) (Math.max(current, 1) - 1) * size;
+        if (offset == 0) {
+            return toSlice(query.get().orderByAsc("id").last("LIMIT " + (size + 1)).list(), size, null, idGetter);
+        }
+        // 定位本页第一条的id
+        T first = query.get().select("id").orderByAsc("id").last("LIMIT " + offset + ", 1").one();
+        if (first == null) {
+            // 没有下一页了
+            return toSlice(Collections.emptyList(), size, null, idGetter);
+        }
+        List<T> list = query.get()
+                .ge("id", idGetter.apply(first))
+                .orderByAsc("id")
+                .last("LIMIT " + (size + 1))
+                .list();
+        return toSlice(list, size, null, idGetter);
+    }
+
+    /**
+     * 按id游标分页：WHERE id > lastId ORDER BY id LIMIT size + 1，多查的一条用来判断是否还有下一页
+     *
+     * @param lastId 上一页最后一条的id，为空时查询第一页
+     */
+    public static <T> SliceResult seek(QueryChainWrapper<T> query, Long lastId, int size, Function<T, Long> idGetter) {
+        List<T> list = query
+                .gt(lastId != null, "id", lastId)
+                .orderByAsc("id")
+                .last("LIMIT " + (size + 1))
+                .list();
+        return toSlice(list, size, lastId, idGetter);
+    }
+
+    /**
+     * 多查的一条用来判断是否还有下一页，截掉后返回
+     */
+    private static <T> SliceResult toSlice(List<T> list, int size, Long lastId, Function<T, Long> idGetter) {
+        boolean hasMore = list.size() > size;
+        if (hasMore) {
+            list = new ArrayList<>(list.subList(0, size));
+        }
+        SliceResult r = new SliceResult();
+        r.setList(list);
+        r.setHasMore(hasMore);
+        r.setLastId(list.isEmpty() ? lastId : idGetter.apply(list.get(list.size() - 1)));
+        return r;
+    }
+}
@@ -5,19 +5,45 @@ public class RedisConstants {
     public static final Long LOGIN_CODE_TTL = 2L;
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 36000L;
+    public static final String LOGIN_LOGOUT_CHANNEL = "login:logout:channel";
+    public static final String LOGIN_REVOKED_KEY = "login:revoked";
+    public static final String LOGIN_REVOKED_CHANNEL = "login:revoked:channel";
 
     public static final Long CACHE_NULL_TTL = 2L;
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
     public static final String CACHE_SHOP_TYPE_KEY = "cache:shopType";
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_STOCK_CHANNEL = "seckill:stock:channel";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String BLOG_LIKED_COUNT_KEY = "blog:liked:count";
+    public static final String BLOG_LIKED_DIRTY_KEY = "blog:liked:dirty";
+    public static final String BLOG_LIKED_FLUSHING_KEY = "blog:liked:flushing";
+    public static final String BLOG_HOT_KEY = "blog:hot";
+    public static final Long CACHE_BLOG_TTL = 30L;
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
     public static final String FEED_KEY = "feed:";
+    public static final String FEED_OUTBOX_KEY = "feed:outbox:";
+    public static final String FEED_BIG_AUTHOR_KEY = "feed:big:authors";
+    public static final String FEED_FANOUT_CHECKPOINT_KEY = "feed:fanout:";
+    public static final Long FEED_FANOUT_CHECKPOINT_TTL = 86400L;
+    public static final String FEED_TRIM_LOCK_KEY = "lock:feed:trim";
+    public static final String FOLLOWS_KEY = "follows:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_GEO_RESULT_KEY = "shop:geo:result:";
+    public static final Long SHOP_GEO_RESULT_TTL = 60L;
+    public static final String SHOP_GEO_LOCK_KEY = "lock:shop:geo:reconcile";
+    public static final String SHOP_GEO_CHANNEL = "shop:geo:channel";
+    public static final String SHOP_NAME_CHANNEL = "shop:name:channel";
     public static final String USER_SIGN_KEY = "sign:";
+    public static final String SIGN_DAY_KEY = "sign:day:";
+    public static final String SIGN_TMP_KEY = "sign:tmp:";
 }
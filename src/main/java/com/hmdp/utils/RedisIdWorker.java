@@ -1,37 +1,174 @@
 package com.hmdp.utils;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+@Slf4j
 @Component
-public class RedisIdWorker {
+public class RedisIdWorker implements IdGenerator {
     private static final long BEGIN_TIMESTAMP = 1735660800L;
     private static final int COUNT_BITS = 32;
     private static final String ICR_KEY_PREFIX = "icr:";
+    private static final long SECONDS_PER_DAY = 86400L;
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 号段长度，大于1时每个节点用一次INCRBY租用一段序列号在本地发放，小于等于1时每个id执行一次INCR
+     */
+    @Value("${hmdp.id-worker.segment-size:1000}")
+    private long segmentSize;
+
+    /**
+     * 号段剩余比例低于该值时异步预取下一个号段
+     */
+    @Value("${hmdp.id-worker.prefetch-ratio:0.2}")
+    private double prefetchRatio;
+
+    private final Map<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
+    private final ExecutorService segmentLoader = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "id-segment-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
         this.stringRedisTemplate = stringRedisTemplate;
     }
+
+    @Override
     public long nextId(String keyPrefix) {
         // 生成时间戳
-        LocalDateTime now = LocalDateTime.now();
-        long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
+        long nowSecond = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
         long timestamp = nowSecond - BEGIN_TIMESTAMP;
 
-        // 生成序列号
-        // 获取当前日期, 精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        // 自增长
-        long count = stringRedisTemplate.opsForValue().increment(ICR_KEY_PREFIX  + keyPrefix + ":" + date);
+        // 生成序列号，序列号按天重置
+        long day = nowSecond / SECONDS_PER_DAY;
+        long count = segmentSize > 1
+                ? buffers.computeIfAbsent(keyPrefix, SegmentBuffer::new).nextSequence(day)
+                // 自增长
+                : stringRedisTemplate.opsForValue().increment(dateKey(keyPrefix, day));
 
         // 拼接并返回
         return timestamp << COUNT_BITS | count;
     }
+
+    @PreDestroy
+    private void destroy() {
+        segmentLoader.shutdownNow();
+    }
+
+    private String dateKey(String keyPrefix, long day) {
+        // 获取当前日期, 精确到天
+        String date = LocalDate.ofEpochDay(day).format(DATE_FORMATTER);
+        return ICR_KEY_PREFIX + keyPrefix + ":" + date;
+    }
+
+    /**
+     * 从Redis租用一个号段 INCRBY icr:prefix:date segmentSize
+     */
+    private Segment allocate(String keyPrefix, long day) {
+        Long end = stringRedisTemplate.opsForValue().increment(dateKey(keyPrefix, day), segmentSize);
+        if (end == null) {
+            throw new IllegalStateException("号段申请失败：" + keyPrefix);
+        }
+        return new Segment(day, end - segmentSize + 1, end);
+    }
+
+    private static class Segment {
+        private final long day;
+        private final long min;
+        private final AtomicLong value;
+        private final long max;
+
+        Segment(long day, long min, long max) {
+            this.day = day;
+            this.min = min;
+            this.value = new AtomicLong(min);
+            this.max = max;
+        }
+    }
+
+    /**
+     * 双号段缓冲：当前号段用AtomicLong无锁发放，剩余不足时异步预取下一个号段
+     */
+    private class SegmentBuffer {
+        private final String keyPrefix;
+        private volatile Segment current;
+        private volatile Segment next;
+        private final AtomicBoolean loading = new AtomicBoolean(false);
+
+        SegmentBuffer(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+
+        long nextSequence(long day) {
+            while (true) {
+                Segment segment = current;
+                if (segment != null && segment.day == day) {
+                    long value = segment.value.getAndIncrement();
+                    if (value <= segment.max) {
+                        if (segment.max - value == (long) (segmentSize * prefetchRatio)) {
+                            // 只有一个线程会拿到这个序列号，由它触发预取
+                            prefetch(day);
+                        }
+                        return value;
+                    }
+                }
+                // 当前号段用完或者跨天，切换号段
+                synchronized (this) {
+                    if (current == segment) {
+                        Segment prefetched = next;
+                        next = null;
+                        current = isNewer(prefetched, segment, day) ? prefetched : allocate(keyPrefix, day);
+                    }
+                }
+            }
+        }
+
+        private boolean isNewer(Segment segment, Segment than, long day) {
+            return segment != null && segment.day == day
+                    && (than == null || than.day != day || segment.min > than.max);
+        }
+
+        private void prefetch(long day) {
+            if (!loading.compareAndSet(false, true)) {
+                return;
+            }
+            segmentLoader.submit(() -> {
+                try {
+                    Segment segment = allocate(keyPrefix, day);
+                    synchronized (this) {
+                        // 预取期间可能已经同步申请了更新的号段，旧号段直接丢弃，保证单节点id单调递增
+                        if (isNewer(segment, current, day)) {
+                            next = segment;
+                        }
+                    }
+                } catch (Exception e) {
+                    // 预取失败时，号段耗尽后会同步申请
+                    log.error("预取号段失败，keyPrefix={}", keyPrefix, e);
+                } finally {
+                    loading.set(false);
+                }
+            });
+        }
+    }
 }
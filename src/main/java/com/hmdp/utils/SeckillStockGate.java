@@ -0,0 +1,81 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_CHANNEL;
+
+/**
+ * 本地库存闸门：在执行seckill.lua之前拦截已售罄的秒杀券，售罄后的请求不再访问Redis
+ */
+@Slf4j
+@Component
+public class SeckillStockGate {
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 已售罄的秒杀券
+     */
+    private final Map<Long, Boolean> soldOut = new ConcurrentHashMap<>();
+    /**
+     * 软库存：补货时的库存减去本节点成功下单数，是全局剩余库存的上界，小于等于0时一定已售罄
+     */
+    private final Map<Long, AtomicInteger> softStock = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        // 订阅库存补充消息，消息格式 voucherId:stock
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String[] arr = new String(message.getBody(), StandardCharsets.UTF_8).split(":");
+            reset(Long.valueOf(arr[0]), Integer.parseInt(arr[1]));
+        }, new ChannelTopic(SECKILL_STOCK_CHANNEL));
+    }
+
+    public boolean isSoldOut(Long voucherId) {
+        return soldOut.containsKey(voucherId);
+    }
+
+    public void markSoldOut(Long voucherId) {
+        soldOut.put(voucherId, Boolean.TRUE);
+    }
+
+    /**
+     * 本节点下单成功后扣减软库存
+     */
+    public void onOrderSuccess(Long voucherId) {
+        AtomicInteger stock = softStock.get(voucherId);
+        if (stock != null && stock.decrementAndGet() <= 0) {
+            markSoldOut(voucherId);
+        }
+    }
+
+    /**
+     * 广播库存补充消息，所有节点重置售罄标记和软库存
+     */
+    public void publishStock(Long voucherId, int stock) {
+        stringRedisTemplate.convertAndSend(SECKILL_STOCK_CHANNEL, voucherId + ":" + stock);
+    }
+
+    private void reset(Long voucherId, int stock) {
+        softStock.put(voucherId, new AtomicInteger(stock));
+        if (stock > 0) {
+            soldOut.remove(voucherId);
+        } else {
+            markSoldOut(voucherId);
+        }
+        log.debug("秒杀券库存已更新，voucherId={}, stock={}", voucherId, stock);
+    }
+}
@@ -0,0 +1,229 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_LOCK_KEY;
+
+/**
+ * 维护商铺的GEO索引 shop:geo:typeId：新增、修改商铺时增量更新，
+ * 后台任务按id分批比对tb_shop与Redis，补齐缺失和坐标变化的商铺，删除已不存在或已换类型的商铺
+ */
+@Slf4j
+@Component
+public class ShopGeoIndex {
+
+    /**
+     * 坐标比对的容差，GEO编码本身有约0.6米的精度损失
+     */
+    private static final double POSITION_TOLERANCE = 1e-5;
+
+    private static final int RECONCILE_BATCH_SIZE = 500;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private ShopMapper shopMapper;
+    @Resource
+    private RedissonClient redissonClient;
+    @Resource
+    private ShopLocalGeoIndex shopLocalGeoIndex;
+
+    /**
+     * 比对任务的执行间隔（毫秒），启动时会先执行一次
+     */
+    @Value("${hmdp.geo.reconcile-interval:3600000}")
+    private long reconcileInterval;
+
+    private ScheduledExecutorService reconcileExecutor;
+
+    @PostConstruct
+    private void init() {
+        reconcileExecutor = Executors.newSingleThreadScheduledExecutor();
+        reconcileExecutor.scheduleWithFixedDelay(this::reconcile, 0, reconcileInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        reconcileExecutor.shutdownNow();
+    }
+
+    /**
+     * 新增商铺后写入GEO索引，并通知所有节点更新进程内索引
+     */
+    public void add(Shop shop) {
+        if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+            return;
+        }
+        geoAdd(shop);
+        shopLocalGeoIndex.publish(shop);
+    }
+
+    private void geoAdd(Shop shop) {
+        stringRedisTemplate.opsForGeo().add(SHOP_GEO_KEY + shop.getTypeId(),
+                new Point(shop.getX(), shop.getY()), shop.getId().toString());
+    }
+
+    /**
+     * 修改商铺后更新GEO索引，类型变化时从原类型的索引中删除
+     *
+     * @param old 修改前的商铺
+     * @param shop 修改的字段，为空的字段沿用修改前的值
+     */
+    public void update(Shop old, Shop shop) {
+        Long typeId = shop.getTypeId() != null ? shop.getTypeId() : old.getTypeId();
+        if (old.getTypeId() != null && !old.getTypeId().equals(typeId)) {
+            stringRedisTemplate.opsForZSet().remove(SHOP_GEO_KEY + old.getTypeId(), old.getId().toString());
+        }
+        Shop merged = new Shop();
+        merged.setId(old.getId());
+        merged.setTypeId(typeId);
+        merged.setX(shop.getX() != null ? shop.getX() : old.getX());
+        merged.setY(shop.getY() != null ? shop.getY() : old.getY());
+        add(merged);
+    }
+
+    /**
+     * 比对tb_shop与GEO索引，不会一次性把所有商铺加载到内存
+     */
+    public void reconcile() {
+        RLock lock = redissonClient.getLock(SHOP_GEO_LOCK_KEY);
+        try {
+            if (!lock.tryLock()) {
+                // 其他节点正在比对
+                return;
+            }
+            long begin = System.currentTimeMillis();
+            int added = addMissing();
+            int removed = removeStale();
+            log.info("商铺GEO索引比对完成，补齐 {} 个，删除 {} 个，耗时 {} ms",
+                    added, removed, System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            // 异常不能抛出，否则定时任务会被取消
+            log.error("商铺GEO索引比对异常", e);
+        } finally {
+            if (lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 按id分批读取tb_shop，GEOPOS比对后补齐缺失或坐标变化的商铺
+     */
+    private int addMissing() {
+        int added = 0;
+        long lastId = 0;
+        while (true) {
+            List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                    .select("id", "type_id", "x", "y")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + RECONCILE_BATCH_SIZE));
+            if (shops.isEmpty()) {
+                break;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+            Map<Long, List<Shop>> byType = shops.stream()
+                    .filter(shop -> shop.getTypeId() != null && shop.getX() != null && shop.getY() != null)
+                    .collect(Collectors.groupingBy(Shop::getTypeId));
+            for (Map.Entry<Long, List<Shop>> entry : byType.entrySet()) {
+                List<Shop> group = entry.getValue();
+                String[] members = group.stream().map(shop -> shop.getId().toString()).toArray(String[]::new);
+                // GEOPOS shop:geo:typeId id1 id2 ...
+                List<Point> points = stringRedisTemplate.opsForGeo().position(SHOP_GEO_KEY + entry.getKey(), members);
+                for (int i = 0; i < group.size(); i++) {
+                    Shop shop = group.get(i);
+                    Point point = points == null ? null : points.get(i);
+                    if (point == null
+                            || Math.abs(point.getX() - shop.getX()) > POSITION_TOLERANCE
+                            || Math.abs(point.getY() - shop.getY()) > POSITION_TOLERANCE) {
+                        // 进程内索引由其自身的定时刷新修正，这里不逐条广播
+                        geoAdd(shop);
+                        added++;
+                    }
+                }
+            }
+            if (shops.size() < RECONCILE_BATCH_SIZE) {
+                break;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * ZSCAN每个GEO索引，分批回查数据库，删除已不存在或类型已变化的商铺
+     */
+    private int removeStale() {
+        int removed = 0;
+        List<String> keys = new ArrayList<>();
+        try (Cursor<String> cursor = stringRedisTemplate.scan(
+                ScanOptions.scanOptions().match(SHOP_GEO_KEY + "*").count(RECONCILE_BATCH_SIZE).build())) {
+            while (cursor.hasNext()) {
+                String key = cursor.next();
+                // 只处理 shop:geo:typeId，跳过搜索结果缓存等其他key
+                if (StrUtil.isNumeric(key.substring(SHOP_GEO_KEY.length()))) {
+                    keys.add(key);
+                }
+            }
+        }
+        for (String key : keys) {
+            Long typeId = Long.valueOf(key.substring(SHOP_GEO_KEY.length()));
+            List<String> batch = new ArrayList<>(RECONCILE_BATCH_SIZE);
+            try (Cursor<ZSetOperations.TypedTuple<String>> cursor = stringRedisTemplate.opsForZSet()
+                    .scan(key, ScanOptions.scanOptions().count(RECONCILE_BATCH_SIZE).build())) {
+                while (cursor.hasNext()) {
+                    batch.add(cursor.next().getValue());
+                    if (batch.size() >= RECONCILE_BATCH_SIZE || !cursor.hasNext()) {
+                        removed += removeStale(key, typeId, batch);
+                        batch.clear();
+                    }
+                }
+            }
+        }
+        return removed;
+    }
+
+    private int removeStale(String key, Long typeId, List<String> members) {
+        Set<String> valid = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "type_id")
+                        .in("id", members))
+                .stream()
+                .filter(shop -> Objects.equals(shop.getTypeId(), typeId))
+                .map(shop -> shop.getId().toString())
+                .collect(Collectors.toCollection(HashSet::new));
+        Object[] stale = members.stream().filter(member -> !valid.contains(member)).toArray();
+        if (stale.length == 0) {
+            return 0;
+        }
+        stringRedisTemplate.opsForZSet().remove(key, stale);
+        return stale.length;
+    }
+}
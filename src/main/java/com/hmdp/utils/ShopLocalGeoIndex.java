@@ -0,0 +1,237 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_CHANNEL;
+
+/**
+ * 进程内的商铺空间索引，每个类型一个 GeoGrid，作为Redis GEOSEARCH之外的附近商铺查询引擎。
+ * 定时从tb_shop全量刷新，商铺新增、修改时通过 shop:geo:channel 广播给所有节点增量更新
+ */
+@Slf4j
+@Component
+public class ShopLocalGeoIndex {
+
+    private static final int REFRESH_BATCH_SIZE = 1000;
+
+    @Resource
+    private ShopMapper shopMapper;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 是否启用进程内空间索引
+     */
+    @Value("${hmdp.geo.local.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 网格边长（度），0.01约为1公里
+     */
+    @Value("${hmdp.geo.local.cell-size:0.01}")
+    private double cellSize;
+
+    /**
+     * 从tb_shop全量刷新的间隔（毫秒）
+     */
+    @Value("${hmdp.geo.local.refresh-interval:600000}")
+    private long refreshInterval;
+
+    /**
+     * 商铺坐标：typeId -> shopId -> {x, y}，只在持有本对象锁时读写，修改后重建对应类型的网格
+     */
+    private Map<Long, Map<Long, double[]>> points = new HashMap<>();
+
+    private volatile Map<Long, GeoGrid> grids = new ConcurrentHashMap<>();
+
+    /**
+     * 全量刷新期间收到的增量更新：shopId -> 最新坐标，只在持有本对象锁时读写，不在刷新时为null
+     */
+    private Map<Long, ShopPoint> pendingUpdates;
+
+    private volatile boolean ready;
+
+    private ScheduledExecutorService refreshExecutor;
+
+    @PostConstruct
+    private void init() {
+        if (!enabled) {
+            return;
+        }
+        // 订阅商铺坐标变更消息，消息格式 shopId:typeId:x:y
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String[] arr = new String(message.getBody(), StandardCharsets.UTF_8).split(":");
+            put(Long.valueOf(arr[0]), Long.valueOf(arr[1]), Double.parseDouble(arr[2]), Double.parseDouble(arr[3]));
+        }, new ChannelTopic(SHOP_GEO_CHANNEL));
+        refreshExecutor = Executors.newSingleThreadScheduledExecutor();
+        refreshExecutor.scheduleWithFixedDelay(this::refresh, 0, refreshInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 索引是否已经加载完成，可以提供查询
+     */
+    public boolean isReady() {
+        return enabled && ready;
+    }
+
+    /**
+     * 查询半径范围内最近的limit个商铺
+     *
+     * @param radius 半径（米）
+     */
+    public List<GeoGrid.Hit> search(Long typeId, double x, double y, double radius, int limit) {
+        GeoGrid grid = grids.get(typeId);
+        return grid == null ? Collections.emptyList() : grid.search(x, y, radius, limit);
+    }
+
+    /**
+     * 广播商铺坐标变更，所有节点（包括本节点）更新进程内索引
+     */
+    public void publish(Shop shop) {
+        if (!enabled) {
+            return;
+        }
+        stringRedisTemplate.convertAndSend(SHOP_GEO_CHANNEL,
+                shop.getId() + ":" + shop.getTypeId() + ":" + shop.getX() + ":" + shop.getY());
+    }
+
+    private synchronized void put(Long shopId, Long typeId, double x, double y) {
+        if (pendingUpdates != null) {
+            // 正在全量刷新，记录下来在替换前重放，避免被刷新读到的旧数据覆盖
+            pendingUpdates.put(shopId, new ShopPoint(typeId, x, y));
+        }
+        for (Long changedType : movePoint(points, shopId, typeId, x, y)) {
+            grids.put(changedType, buildGrid(points.get(changedType)));
+        }
+    }
+
+    /**
+     * 把商铺放到typeId下，并从原类型中移除（类型可能发生了变化）
+     *
+     * @return 发生变化的类型
+     */
+    private static Set<Long> movePoint(Map<Long, Map<Long, double[]>> points, Long shopId, Long typeId, double x, double y) {
+        Set<Long> changed = new HashSet<>();
+        for (Map.Entry<Long, Map<Long, double[]>> entry : points.entrySet()) {
+            if (!entry.getKey().equals(typeId) && entry.getValue().remove(shopId) != null) {
+                changed.add(entry.getKey());
+            }
+        }
+        points.computeIfAbsent(typeId, k -> new HashMap<>()).put(shopId, new double[]{x, y});
+        changed.add(typeId);
+        return changed;
+    }
+
+    /**
+     * 按id分批读取tb_shop，构建完成后整体替换
+     */
+    private void refresh() {
+        synchronized (this) {
+            pendingUpdates = new HashMap<>();
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            Map<Long, Map<Long, double[]>> loaded = new HashMap<>();
+            long lastId = 0;
+            int total = 0;
+            while (true) {
+                List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "type_id", "x", "y")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("LIMIT " + REFRESH_BATCH_SIZE));
+                if (shops.isEmpty()) {
+                    break;
+                }
+                for (Shop shop : shops) {
+                    if (shop.getTypeId() != null && shop.getX() != null && shop.getY() != null) {
+                        loaded.computeIfAbsent(shop.getTypeId(), k -> new HashMap<>())
+                                .put(shop.getId(), new double[]{shop.getX(), shop.getY()});
+                    }
+                }
+                total += shops.size();
+                lastId = shops.get(shops.size() - 1).getId();
+                if (shops.size() < REFRESH_BATCH_SIZE) {
+                    break;
+                }
+            }
+            Map<Long, GeoGrid> built = new ConcurrentHashMap<>(loaded.size());
+            loaded.forEach((typeId, typePoints) -> built.put(typeId, buildGrid(typePoints)));
+            synchronized (this) {
+                // 重放刷新期间收到的增量更新
+                Set<Long> changed = new HashSet<>();
+                pendingUpdates.forEach((shopId, point) ->
+                        changed.addAll(movePoint(loaded, shopId, point.getTypeId(), point.getX(), point.getY())));
+                changed.forEach(typeId -> built.put(typeId, buildGrid(loaded.get(typeId))));
+                points = loaded;
+                grids = built;
+            }
+            ready = true;
+            log.info("商铺空间索引刷新完成，共 {} 个商铺，耗时 {} ms", total, System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            // 异常不能抛出，否则定时任务会被取消
+            log.error("刷新商铺空间索引异常", e);
+        } finally {
+            synchronized (this) {
+                pendingUpdates = null;
+            }
+        }
+    }
+
+    private GeoGrid buildGrid(Map<Long, double[]> typePoints) {
+        int n = typePoints.size();
+        long[] ids = new long[n];
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        int i = 0;
+        for (Map.Entry<Long, double[]> entry : typePoints.entrySet()) {
+            ids[i] = entry.getKey();
+            xs[i] = entry.getValue()[0];
+            ys[i] = entry.getValue()[1];
+            i++;
+        }
+        return GeoGrid.build(ids, xs, ys, cellSize);
+    }
+
+    @Data
+    @AllArgsConstructor
+    private static class ShopPoint {
+        private Long typeId;
+        private double x;
+        private double y;
+    }
+}
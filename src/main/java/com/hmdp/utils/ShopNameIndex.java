@@ -0,0 +1,264 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SHOP_NAME_CHANNEL;
+
+/**
+ * 商铺名称的进程内倒排索引：以单字和相邻两字（bigram）为词项，替代 name LIKE '%kw%' 的全表扫描。
+ * 定时从tb_shop全量刷新，商铺新增、修改时通过 shop:name:channel 广播给所有节点增量更新
+ */
+@Slf4j
+@Component
+public class ShopNameIndex {
+
+    private static final int REFRESH_BATCH_SIZE = 1000;
+
+    @Resource
+    private ShopMapper shopMapper;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 从tb_shop全量刷新的间隔（毫秒）
+     */
+    @Value("${hmdp.shop.name-index-refresh-interval:600000}")
+    private long refreshInterval;
+
+    /**
+     * 词项 -> 商铺id集合
+     */
+    private volatile Map<String, Set<Long>> postings = new ConcurrentHashMap<>();
+
+    /**
+     * 商铺id -> 名称（统一转为小写）
+     */
+    private volatile Map<Long, String> names = new ConcurrentHashMap<>();
+
+    /**
+     * 全量刷新期间收到的名称变更：shopId -> 名称，只在持有本对象锁时读写，不在刷新时为null
+     */
+    private Map<Long, String> pendingUpdates;
+
+    private volatile boolean ready;
+
+    private ScheduledExecutorService refreshExecutor;
+
+    @PostConstruct
+    private void init() {
+        // 订阅商铺名称变更消息，消息格式 shopId:name
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String[] arr = new String(message.getBody(), StandardCharsets.UTF_8).split(":", 2);
+            put(Long.valueOf(arr[0]), arr[1]);
+        }, new ChannelTopic(SHOP_NAME_CHANNEL));
+        refreshExecutor = Executors.newSingleThreadScheduledExecutor();
+        refreshExecutor.scheduleWithFixedDelay(this::refresh, 0, refreshInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        refreshExecutor.shutdownNow();
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 广播商铺名称变更，所有节点（包括本节点）更新索引
+     */
+    public void publish(Long shopId, String name) {
+        if (name == null) {
+            return;
+        }
+        stringRedisTemplate.convertAndSend(SHOP_NAME_CHANNEL, shopId + ":" + name);
+    }
+
+    /**
+     * 查询名称包含关键字的商铺，按相关度排序后分页：完全相同 > 前缀匹配 > 名称更短 > id更小
+     *
+     * @return 当前页的商铺id
+     */
+    public List<Long> search(String keyword, int current, int size) {
+        String kw = keyword.trim().toLowerCase();
+        if (kw.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // 取关键字的所有词项，从最短的倒排表开始求交集
+        Map<String, Set<Long>> postings = this.postings;
+        List<Set<Long>> lists = new ArrayList<>();
+        for (String term : terms(kw)) {
+            Set<Long> ids = postings.get(term);
+            if (ids == null) {
+                return Collections.emptyList();
+            }
+            lists.add(ids);
+        }
+        lists.sort(Comparator.comparingInt(Set::size));
+        Map<Long, String> names = this.names;
+        List<Long> hits = new ArrayList<>();
+        for (Long id : lists.get(0)) {
+            boolean all = true;
+            for (int i = 1; i < lists.size() && all; i++) {
+                all = lists.get(i).contains(id);
+            }
+            // bigram全部命中不代表连续出现，最后用contains确认，与LIKE语义一致
+            String name = names.get(id);
+            if (all && name != null && name.contains(kw)) {
+                hits.add(id);
+            }
+        }
+        hits.sort(Comparator.<Long>comparingInt(id -> rank(names.get(id), kw))
+                .thenComparingInt(id -> names.get(id).length())
+                .thenComparingLong(id -> id));
+        int from = (Math.max(current, 1) - 1) * size;
+        if (from >= hits.size()) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(hits.subList(from, Math.min(from + size, hits.size())));
+    }
+
+    private static int rank(String name, String kw) {
+        if (name.equals(kw)) {
+            return 0;
+        }
+        return name.startsWith(kw) ? 1 : 2;
+    }
+
+    /**
+     * 关键字只有一个字时用单字，否则用所有相邻两字
+     */
+    private static Set<String> terms(String text) {
+        Set<String> terms = new HashSet<>();
+        if (text.length() == 1) {
+            terms.add(text);
+            return terms;
+        }
+        for (int i = 0; i + 2 <= text.length(); i++) {
+            terms.add(text.substring(i, i + 2));
+        }
+        return terms;
+    }
+
+    /**
+     * 建立索引时同时写入单字和相邻两字，单字关键字也能命中
+     */
+    private static Set<String> indexTerms(String name) {
+        Set<String> terms = terms(name);
+        for (int i = 0; i < name.length(); i++) {
+            terms.add(name.substring(i, i + 1));
+        }
+        return terms;
+    }
+
+    synchronized void put(Long shopId, String name) {
+        if (pendingUpdates != null) {
+            // 正在全量刷新，记录下来在替换前重放，避免被刷新读到的旧名称覆盖
+            pendingUpdates.put(shopId, name);
+        }
+        index(postings, names, shopId, name);
+    }
+
+    /**
+     * 更新商铺名称：先从旧名称的词项中移除，再写入新名称的词项
+     */
+    private static void index(Map<String, Set<Long>> postings, Map<Long, String> names, Long shopId, String name) {
+        String old = names.get(shopId);
+        String normalized = name.toLowerCase();
+        if (old != null) {
+            for (String term : indexTerms(old)) {
+                Set<Long> ids = postings.get(term);
+                if (ids != null) {
+                    ids.remove(shopId);
+                }
+            }
+        }
+        names.put(shopId, normalized);
+        for (String term : indexTerms(normalized)) {
+            postings.computeIfAbsent(term, k -> ConcurrentHashMap.newKeySet()).add(shopId);
+        }
+    }
+
+    /**
+     * 按id分批读取tb_shop，构建完成后整体替换
+     */
+    private void refresh() {
+        synchronized (this) {
+            pendingUpdates = new HashMap<>();
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            Map<String, Set<Long>> loadedPostings = new ConcurrentHashMap<>();
+            Map<Long, String> loadedNames = new ConcurrentHashMap<>();
+            long lastId = 0;
+            while (true) {
+                List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "name")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("LIMIT " + REFRESH_BATCH_SIZE));
+                if (shops.isEmpty()) {
+                    break;
+                }
+                for (Shop shop : shops) {
+                    if (StrUtil.isBlank(shop.getName())) {
+                        continue;
+                    }
+                    String name = shop.getName().toLowerCase();
+                    loadedNames.put(shop.getId(), name);
+                    for (String term : indexTerms(name)) {
+                        loadedPostings.computeIfAbsent(term, k -> ConcurrentHashMap.newKeySet()).add(shop.getId());
+                    }
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+                if (shops.size() < REFRESH_BATCH_SIZE) {
+                    break;
+                }
+            }
+            synchronized (this) {
+                // 重放刷新期间收到的名称变更
+                pendingUpdates.forEach((shopId, name) -> index(loadedPostings, loadedNames, shopId, name));
+                postings = loadedPostings;
+                names = loadedNames;
+            }
+            ready = true;
+            log.info("商铺名称索引刷新完成，共 {} 个商铺，{} 个词项，耗时 {} ms",
+                    loadedNames.size(), loadedPostings.size(), System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            // 异常不能抛出，否则定时任务会被取消
+            log.error("刷新商铺名称索引异常", e);
+        } finally {
+            synchronized (this) {
+                pendingUpdates = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import com.hmdp.dto.SignDayExport;
+import com.hmdp.dto.SignMonth;
+import com.hmdp.dto.SignRetention;
+import com.hmdp.dto.SignStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SIGN_DAY_KEY;
+import static com.hmdp.utils.RedisConstants.SIGN_TMP_KEY;
+import static com.hmdp.utils.RedisConstants.USER_SIGN_KEY;
+
+/**
+ * 签到统计：一次pipeline取回所需月份的 sign:userId:yyyyMM 位图，
+ * 每个月转换成一个long（第i位表示第i+1天），在本地用位运算计算总天数、最长连续和当前连续签到。
+ * <p>
+ * 签到时同时写入按天的全员位图 sign:day:yyyyMMdd（偏移量为userId），
+ * 日活、周活和留存直接在Redis中用 BITOP/BITCOUNT 计算，不需要扫描用户key
+ */
+@Component
+public class SignClient {
+
+    private static final DateTimeFormatter KEY_FORMATTER = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final DateTimeFormatter MONTH_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM");
+    private static final DateTimeFormatter DAY_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final DefaultRedisScript<Long> SIGN_SCRIPT;
+    private static final DefaultRedisScript<List<Long>> COUNT_SCRIPT;
+
+    static {
+        SIGN_SCRIPT = new DefaultRedisScript<>();
+        SIGN_SCRIPT.setLocation(new ClassPathResource("sign.lua"));
+        SIGN_SCRIPT.setResultType(Long.class);
+        COUNT_SCRIPT = new DefaultRedisScript<>();
+        COUNT_SCRIPT.setLocation(new ClassPathResource("sign_count.lua"));
+        COUNT_SCRIPT.setResultType(listOfLong());
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 统计区间最多包含的月数，同时也是计算当前连续签到时最多回溯的月数
+     */
+    @Value("${hmdp.sign.max-months:12}")
+    private int maxMonths;
+
+    /**
+     * 活跃用户统计区间最多包含的天数，同时也是留存统计最多间隔的天数
+     */
+    @Value("${hmdp.sign.max-days:90}")
+    private int maxDays;
+
+    /**
+     * 按天位图的保留天数
+     */
+    @Value("${hmdp.sign.day-key-ttl-days:400}")
+    private long dayKeyTtlDays;
+
+    /**
+     * 签到，原子地写入用户月位图和当天的全员位图
+     *
+     * @return 当天之前是否已经签到
+     */
+    public boolean sign(Long userId, LocalDate date) {
+        Long signed = stringRedisTemplate.execute(
+                SIGN_SCRIPT,
+                Arrays.asList(userKey(userId, YearMonth.from(date)), dayKey(date)),
+                String.valueOf(date.getDayOfMonth() - 1),
+                userId.toString(),
+                String.valueOf(TimeUnit.DAYS.toSeconds(dayKeyTtlDays)));
+        return signed != null && signed == 1L;
+    }
+
+    /**
+     * [from, to] 区间内至少签到一次的用户数：单日直接BITCOUNT，多日在lua脚本中 BITOP OR 到临时key再BITCOUNT
+     */
+    public long activeCount(LocalDate from, LocalDate to) {
+        if (from.equals(to)) {
+            Long count = stringRedisTemplate.execute(
+                    (RedisCallback<Long>) connection -> connection.stringCommands().bitCount(bytes(dayKey(from))));
+            return count == null ? 0L : count;
+        }
+        List<String> keys = new ArrayList<>();
+        keys.add(SIGN_TMP_KEY + UUID.fastUUID().toString(true));
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            keys.add(dayKey(date));
+        }
+        List<Long> counts = stringRedisTemplate.execute(COUNT_SCRIPT, keys, "or");
+        return counts == null || counts.isEmpty() ? 0L : counts.get(0);
+    }
+
+    /**
+     * cohort当天签到的用户在之后第N天仍签到的人数：在一次lua脚本中依次 BITOP AND 两天的位图再BITCOUNT
+     *
+     * @return 第一个元素为cohort当天（day=0），之后依次为 days 中的每一天
+     */
+    public List<SignRetention> retention(LocalDate cohort, List<Integer> days) {
+        List<String> keys = new ArrayList<>(days.size() + 2);
+        keys.add(SIGN_TMP_KEY + UUID.fastUUID().toString(true));
+        keys.add(dayKey(cohort));
+        for (Integer day : days) {
+            keys.add(dayKey(cohort.plusDays(day)));
+        }
+        List<Long> counts = stringRedisTemplate.execute(COUNT_SCRIPT, keys, "and");
+        long cohortSize = counts == null || counts.isEmpty() ? 0L : counts.get(0);
+        List<SignRetention> retentions = new ArrayList<>(days.size() + 1);
+        retentions.add(retention(0, cohortSize, cohortSize));
+        for (int i = 0; i < days.size(); i++) {
+            long retained = counts == null || counts.size() <= i + 1 ? 0L : counts.get(i + 1);
+            retentions.add(retention(days.get(i), retained, cohortSize));
+        }
+        return retentions;
+    }
+
+    /**
+     * 导出某一天签到的用户，原样返回Redis位图（base64），供离线分析使用。
+     * 签到用户在id上分散分布，位图每个用户只占1位，比列出id或游程编码更紧凑
+     */
+    public SignDayExport export(LocalDate date) {
+        byte[] bitmap = stringRedisTemplate.execute(
+                (RedisCallback<byte[]>) connection -> connection.stringCommands().get(bytes(dayKey(date))));
+        if (bitmap == null) {
+            bitmap = new byte[0];
+        }
+        long count = 0;
+        for (byte b : bitmap) {
+            count += Integer.bitCount(b & 0xFF);
+        }
+        SignDayExport export = new SignDayExport();
+        export.setDate(date);
+        export.setCount(count);
+        export.setBitmap(Base64.getEncoder().encodeToString(bitmap));
+        return export;
+    }
+
+    /**
+     * 截止到今天的连续签到天数，可以跨月，最多回溯 maxMonths 个月
+     */
+    public int currentStreak(Long userId) {
+        YearMonth thisMonth = YearMonth.now();
+        Map<YearMonth, Long> masks = loadMasks(userId, monthsBetween(thisMonth.minusMonths(maxMonths - 1), thisMonth));
+        return currentStreak(masks, LocalDate.now());
+    }
+
+    /**
+     * 统计 [from, to] 区间内的签到情况，区间和当前连续签到需要的月份在同一次pipeline中读取
+     */
+    public SignStats stats(Long userId, LocalDate from, LocalDate to) {
+        YearMonth fromMonth = YearMonth.from(from);
+        YearMonth toMonth = YearMonth.from(to);
+        LocalDate today = LocalDate.now();
+        YearMonth thisMonth = YearMonth.from(today);
+        // 区间内的月份和回溯的月份去重后一次读取
+        Set<YearMonth> months = new TreeSet<>(monthsBetween(fromMonth, toMonth));
+        months.addAll(monthsBetween(thisMonth.minusMonths(maxMonths - 1), thisMonth));
+        Map<YearMonth, Long> masks = loadMasks(userId, months);
+
+        int totalDays = 0;
+        int longestStreak = 0;
+        // 跨月延续的连续签到天数，即截止到上个月最后一天的连续天数
+        int carry = 0;
+        List<SignMonth> signMonths = new ArrayList<>();
+        for (YearMonth month = fromMonth; !month.isAfter(toMonth); month = month.plusMonths(1)) {
+            int length = month.lengthOfMonth();
+            // 去掉区间之外的天
+            int firstDay = month.equals(fromMonth) ? from.getDayOfMonth() : 1;
+            int lastDay = month.equals(toMonth) ? to.getDayOfMonth() : length;
+            long mask = masks.get(month) & rangeMask(firstDay, lastDay);
+
+            totalDays += Long.bitCount(mask);
+            // 从1号开始的连续天数与上个月末的连续天数相连
+            int head = Math.min(Long.numberOfTrailingZeros(~mask), length);
+            if (head == length) {
+                carry += length;
+                longestStreak = Math.max(longestStreak, carry);
+            } else {
+                longestStreak = Math.max(longestStreak, Math.max(carry + head, longestRun(mask)));
+                carry = tailRun(mask, length);
+            }
+
+            SignMonth signMonth = new SignMonth();
+            signMonth.setMonth(month.format(MONTH_FORMATTER));
+            signMonth.setMask(mask);
+            signMonth.setDays(days(mask));
+            signMonth.setCount(Long.bitCount(mask));
+            signMonths.add(signMonth);
+        }
+
+        SignStats stats = new SignStats();
+        stats.setFrom(from);
+        stats.setTo(to);
+        stats.setTotalDays(totalDays);
+        stats.setLongestStreak(longestStreak);
+        stats.setCurrentStreak(currentStreak(masks, today));
+        stats.setMonths(signMonths);
+        return stats;
+    }
+
+    /**
+     * 从今天往前数连续签到的天数，今天未签到时为0
+     */
+    private int currentStreak(Map<YearMonth, Long> masks, LocalDate today) {
+        YearMonth month = YearMonth.from(today);
+        int lastDay = today.getDayOfMonth();
+        int streak = 0;
+        while (masks.containsKey(month)) {
+            int run = tailRun(masks.get(month), lastDay);
+            streak += run;
+            if (run < lastDay) {
+                break;
+            }
+            // 整月都签到了，继续看上个月
+            month = month.minusMonths(1);
+            lastDay = month.lengthOfMonth();
+        }
+        return streak;
+    }
+
+    public int getMaxMonths() {
+        return maxMonths;
+    }
+
+    public int getMaxDays() {
+        return maxDays;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<List<Long>> listOfLong() {
+        return (Class<List<Long>>) (Class<?>) List.class;
+    }
+
+    private static SignRetention retention(int day, long retained, long cohortSize) {
+        SignRetention retention = new SignRetention();
+        retention.setDay(day);
+        retention.setRetained(retained);
+        retention.setRate(cohortSize == 0 ? 0D : (double) retained / cohortSize);
+        return retention;
+    }
+
+    private static String userKey(Long userId, YearMonth month) {
+        return USER_SIGN_KEY + userId + ":" + month.format(KEY_FORMATTER);
+    }
+
+    private static String dayKey(LocalDate date) {
+        return SIGN_DAY_KEY + date.format(DAY_FORMATTER);
+    }
+
+    private static byte[] bytes(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<YearMonth> monthsBetween(YearMonth from, YearMonth to) {
+        List<YearMonth> months = new ArrayList<>();
+        for (YearMonth month = from; !month.isAfter(to); month = month.plusMonths(1)) {
+            months.add(month);
+        }
+        return months;
+    }
+
+    /**
+     * pipeline读取所有月份的位图，不存在的月份为0
+     */
+    private Map<YearMonth, Long> loadMasks(Long userId, Collection<YearMonth> months) {
+        // 位图需要按原始字节读取，不能用字符串反序列化
+        List<Object> bitmaps = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (YearMonth month : months) {
+                connection.stringCommands().get(bytes(userKey(userId, month)));
+            }
+            return null;
+        }, RedisSerializer.byteArray());
+        Map<YearMonth, Long> masks = new HashMap<>(months.size() * 2);
+        int i = 0;
+        for (YearMonth month : months) {
+            masks.put(month, toMask((byte[]) bitmaps.get(i++), month.lengthOfMonth()));
+        }
+        return masks;
+    }
+
+    /**
+     * Redis位图的第0位是第一个字节的最高位，反转每个字节后拼成long，第i位对应第i+1天
+     */
+    static long toMask(byte[] bitmap, int length) {
+        if (bitmap == null) {
+            return 0L;
+        }
+        long mask = 0L;
+        for (int i = 0; i < bitmap.length && i * 8 < length; i++) {
+            mask |= (long) (Integer.reverse(bitmap[i] & 0xFF) >>> 24) << (i * 8);
+        }
+        return mask & rangeMask(1, length);
+    }
+
+    /**
+     * 第 firstDay 到 lastDay 天（从1开始）对应的位都为1
+     */
+    static long rangeMask(int firstDay, int lastDay) {
+        return ((1L << lastDay) - 1) & -(1L << (firstDay - 1));
+    }
+
+    /**
+     * 最长的连续1的个数：跳过0，数1，依次处理每一段
+     */
+    static int longestRun(long mask) {
+        int longest = 0;
+        while (mask != 0) {
+            mask >>>= Long.numberOfTrailingZeros(mask);
+            int run = Long.numberOfTrailingZeros(~mask);
+            longest = Math.max(longest, run);
+            mask >>>= run;
+        }
+        return longest;
+    }
+
+    /**
+     * 以第 lastDay 天结尾的连续1的个数
+     */
+    static int tailRun(long mask, int lastDay) {
+        return Long.numberOfLeadingZeros(~(mask << (Long.SIZE - lastDay)));
+    }
+
+    private static List<Integer> days(long mask) {
+        List<Integer> days = new ArrayList<>(Long.bitCount(mask));
+        while (mask != 0) {
+            days.add(Long.numberOfTrailingZeros(mask) + 1);
+            mask &= mask - 1;
+        }
+        return days;
+    }
+}
@@ -0,0 +1,246 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_REVOKED_CHANNEL;
+import static com.hmdp.utils.RedisConstants.LOGIN_REVOKED_KEY;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
+
+/**
+ * 无状态的签名token：base64url(claims).base64url(HMAC-SHA256)，claims中携带UserDTO、过期时间和jti，
+ * 校验只在本地计算签名，不访问Redis。
+ * <p>
+ * 退出登录的token记录在 login:revoked（zset，score为过期时间）中并广播给所有节点，
+ * 本地布隆过滤器判断可能被吊销时才查询Redis确认
+ */
+@Slf4j
+@Component
+public class SignedTokenService {
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * token模式：redis（login:token:uuid 哈希）或 signed（签名token）
+     */
+    @Value("${hmdp.login.token-mode:redis}")
+    private String tokenMode;
+
+    /**
+     * 签名密钥，signed模式下必须配置，所有节点一致
+     */
+    @Value("${hmdp.login.token-secret:}")
+    private String tokenSecret;
+
+    /**
+     * 布隆过滤器预期的吊销token数量
+     */
+    @Value("${hmdp.login.revoked-expected:100000}")
+    private long revokedExpected;
+
+    private ThreadLocal<Mac> macs;
+
+    private volatile BloomFilter<CharSequence> revokedFilter;
+
+    /**
+     * 布隆过滤器是否已从Redis成功重建过，未重建前每次校验都直接查询Redis
+     */
+    private volatile boolean filterReady;
+
+    /**
+     * 重建期间新的布隆过滤器，重建时收到的吊销消息同时写入新旧两个过滤器
+     */
+    private volatile BloomFilter<CharSequence> rebuildingFilter;
+
+    private ScheduledExecutorService rebuildExecutor;
+
+    @PostConstruct
+    private void init() {
+        if (!isEnabled()) {
+            return;
+        }
+        if (StrUtil.isBlank(tokenSecret)) {
+            throw new IllegalStateException("signed模式需要配置 hmdp.login.token-secret");
+        }
+        SecretKeySpec key = new SecretKeySpec(tokenSecret.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM);
+        macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        // 先使用空过滤器，首次重建失败时校验退化为查询Redis，不会空指针
+        revokedFilter = newFilter();
+        rebuildFilter();
+        // 订阅吊销消息，消息内容为jti
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String jti = new String(message.getBody(), StandardCharsets.UTF_8);
+            revokedFilter.put(jti);
+            BloomFilter<CharSequence> rebuilding = rebuildingFilter;
+            if (rebuilding != null) {
+                rebuilding.put(jti);
+            }
+        }, new ChannelTopic(LOGIN_REVOKED_CHANNEL));
+        // 布隆过滤器不能删除元素，定时按未过期的吊销记录重建
+        rebuildExecutor = Executors.newSingleThreadScheduledExecutor();
+        rebuildExecutor.scheduleWithFixedDelay(this::rebuildFilter, 1, 1, TimeUnit.HOURS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        if (rebuildExecutor != null) {
+            rebuildExecutor.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return "signed".equals(tokenMode);
+    }
+
+    /**
+     * 签发token，有效期为 LOGIN_USER_TTL
+     */
+    public String issue(UserDTO user) {
+        JSONObject claims = new JSONObject();
+        claims.set("id", user.getId());
+        claims.set("nickName", user.getNickName());
+        claims.set("icon", user.getIcon());
+        claims.set("exp", System.currentTimeMillis() / 1000 + LOGIN_USER_TTL);
+        claims.set("jti", UUID.fastUUID().toString(true));
+        String payload = ENCODER.encodeToString(claims.toString().getBytes(StandardCharsets.UTF_8));
+        return payload + "." + sign(payload);
+    }
+
+    /**
+     * 校验token，签名错误、已过期或已吊销时返回null
+     */
+    public UserDTO verify(String token) {
+        JSONObject claims = parse(token);
+        if (claims == null) {
+            return null;
+        }
+        String jti = claims.getStr("jti");
+        // 布隆过滤器判断不存在的一定未被吊销，可能存在时再查Redis确认；过滤器未就绪时直接查Redis
+        if ((!filterReady || revokedFilter.mightContain(jti))
+                && stringRedisTemplate.opsForZSet().score(LOGIN_REVOKED_KEY, jti) != null) {
+            return null;
+        }
+        UserDTO user = new UserDTO();
+        user.setId(claims.getLong("id"));
+        user.setNickName(claims.getStr("nickName"));
+        user.setIcon(claims.getStr("icon"));
+        return user;
+    }
+
+    /**
+     * 吊销token：ZADD login:revoked exp jti，并广播给所有节点
+     *
+     * @return token是否有效并被吊销
+     */
+    public boolean revoke(String token) {
+        JSONObject claims = parse(token);
+        if (claims == null) {
+            return false;
+        }
+        String jti = claims.getStr("jti");
+        stringRedisTemplate.opsForZSet().add(LOGIN_REVOKED_KEY, jti, claims.getLong("exp"));
+        revokedFilter.put(jti);
+        stringRedisTemplate.convertAndSend(LOGIN_REVOKED_CHANNEL, jti);
+        return true;
+    }
+
+    /**
+     * 校验签名和过期时间，返回claims
+     */
+    private JSONObject parse(String token) {
+        int dot = token.indexOf('.');
+        if (dot <= 0 || dot == token.length() - 1) {
+            return null;
+        }
+        String payload = token.substring(0, dot);
+        byte[] expected = sign(payload).getBytes(StandardCharsets.US_ASCII);
+        byte[] actual = token.substring(dot + 1).getBytes(StandardCharsets.US_ASCII);
+        // 常量时间比较，避免计时攻击
+        if (!MessageDigest.isEqual(expected, actual)) {
+            return null;
+        }
+        JSONObject claims;
+        try {
+            claims = JSONUtil.parseObj(new String(DECODER.decode(payload), StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            return null;
+        }
+        Long exp = claims.getLong("exp");
+        if (exp == null || exp <= System.currentTimeMillis() / 1000) {
+            return null;
+        }
+        return claims;
+    }
+
+    private String sign(String payload) {
+        return ENCODER.encodeToString(macs.get().doFinal(payload.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * 清理已过期的吊销记录，并按剩余记录重建布隆过滤器
+     */
+    private void rebuildFilter() {
+        try {
+            long now = System.currentTimeMillis() / 1000;
+            stringRedisTemplate.opsForZSet().removeRangeByScore(LOGIN_REVOKED_KEY, 0, now);
+            BloomFilter<CharSequence> filter = newFilter();
+            rebuildingFilter = filter;
+            Set<String> revoked = stringRedisTemplate.opsForZSet().range(LOGIN_REVOKED_KEY, 0, -1);
+            if (revoked != null) {
+                revoked.forEach(filter::put);
+            }
+            revokedFilter = filter;
+            filterReady = true;
+            log.info("token吊销布隆过滤器重建完成，共 {} 个", revoked == null ? 0 : revoked.size());
+        } catch (Exception e) {
+            // 异常不能抛出，否则定时任务会被取消
+            log.error("重建token吊销布隆过滤器异常", e);
+        } finally {
+            rebuildingFilter = null;
+        }
+    }
+
+    private BloomFilter<CharSequence> newFilter() {
+        return BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), revokedExpected, 0.01);
+    }
+}
@@ -0,0 +1,205 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 雪花算法id生成器：1位标志位 + 40位毫秒时间戳 + 10位workerId + 12位序列号。
+ * workerId在启动时通过 SETNX icr:worker:n 租用，之后id完全在本地生成，不访问Redis
+ * <p>
+ * RedisIdWorker的id为 秒级时间戳 << 32，与毫秒时间戳 << 22 的数值范围重叠，从redis策略切换过来时可能与已有订单主键冲突。
+ * 因此固定把第62位置为1：RedisIdWorker的id在2059年（秒级时间戳超过30位）之前都小于 2^62，两种策略的id不会重叠。
+ * 40位毫秒时间戳同样在2059年用完，到期前启动和发号都会失败
+ */
+@Slf4j
+@Primary
+@Component
+@ConditionalOnProperty(name = "hmdp.id-worker.strategy", havingValue = "snowflake")
+public class SnowflakeIdWorker implements IdGenerator {
+    private static final long BEGIN_TIMESTAMP = 1735660800000L;
+    private static final int TIMESTAMP_BITS = 40;
+    private static final int WORKER_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long MAX_WORKER_ID = (1L << WORKER_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final long MAX_TIMESTAMP = (1L << TIMESTAMP_BITS) - 1;
+    /**
+     * 标志位，保证雪花id大于RedisIdWorker已经生成的所有id
+     */
+    private static final long SNOWFLAKE_FLAG = 1L << (TIMESTAMP_BITS + WORKER_BITS + SEQUENCE_BITS);
+    private static final String WORKER_KEY_PREFIX = "icr:worker:";
+    private static final long WORKER_LEASE_TTL = 60L;
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("worker_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 固定的workerId，配置后不再向Redis租用
+     */
+    @Value("${hmdp.id-worker.worker-id:-1}")
+    private long configuredWorkerId = -1;
+
+    /**
+     * 允许容忍的时钟回拨毫秒数，回拨在该范围内时沿用上一次的时间戳继续发号，超过则拒绝发号
+     */
+    @Value("${hmdp.id-worker.max-backward-ms:5}")
+    private long maxBackwardMs = 5;
+
+    private volatile long workerId;
+
+    /**
+     * 是否通过Redis租用workerId
+     */
+    private volatile boolean leased;
+
+    /**
+     * 租约的到期时间（System.nanoTime），从发出SETNX/续期命令之前开始计算，不会晚于Redis中key的实际过期时间。
+     * 过期后其他节点可能已经租用了同一个workerId，在重新租用或续期成功之前拒绝发号
+     */
+    private volatile long leaseExpireNanos;
+
+    /**
+     * 打包的状态：高位为上一次发号的时间戳，低12位为序列号，通过CAS无锁更新
+     */
+    private final AtomicLong state = new AtomicLong();
+
+    private final String token = UUID.randomUUID().toString(true);
+
+    private ScheduledExecutorService leaseRenewer;
+
+    public SnowflakeIdWorker() {
+    }
+
+    public SnowflakeIdWorker(long workerId) {
+        if (workerId < 0 || workerId > MAX_WORKER_ID) {
+            throw new IllegalArgumentException("workerId超出范围：" + workerId);
+        }
+        this.workerId = workerId;
+    }
+
+    @PostConstruct
+    private void init() {
+        if (System.currentTimeMillis() - BEGIN_TIMESTAMP > MAX_TIMESTAMP) {
+            throw new IllegalStateException("雪花id的时间戳位已用完，不能再使用snowflake策略");
+        }
+        if (configuredWorkerId >= 0) {
+            this.workerId = configuredWorkerId;
+            return;
+        }
+        this.leased = true;
+        leaseWorkerId();
+        leaseRenewer = Executors.newSingleThreadScheduledExecutor();
+        leaseRenewer.scheduleWithFixedDelay(this::renewLease,
+                WORKER_LEASE_TTL / 3, WORKER_LEASE_TTL / 3, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        if (leaseRenewer != null) {
+            leaseRenewer.shutdownNow();
+            stringRedisTemplate.delete(WORKER_KEY_PREFIX + workerId);
+        }
+    }
+
+    @Override
+    public long nextId(String keyPrefix) {
+        if (leased && System.nanoTime() - leaseExpireNanos > 0) {
+            throw new IllegalStateException("workerId租约已过期，拒绝生成id，workerId=" + workerId);
+        }
+        while (true) {
+            // 先读状态再读时钟，避免线程在两次读取之间被挂起时把旧时钟误判为回拨
+            long last = state.get();
+            long now = System.currentTimeMillis() - BEGIN_TIMESTAMP;
+            long lastTimestamp = last >>> SEQUENCE_BITS;
+            long next;
+            if (now > MAX_TIMESTAMP) {
+                throw new IllegalStateException("雪花id的时间戳位已用完，拒绝生成id");
+            }
+            if (now > lastTimestamp) {
+                // 新的毫秒，序列号从0开始
+                next = now << SEQUENCE_BITS;
+            } else {
+                if (lastTimestamp - now > maxBackwardMs) {
+                    // 时钟回拨过多，拒绝发号
+                    throw new IllegalStateException("时钟回拨 " + (lastTimestamp - now) + " ms，拒绝生成id");
+                }
+                if ((last & SEQUENCE_MASK) == SEQUENCE_MASK) {
+                    // 同一毫秒内序列号耗尽（或小幅回拨期间），自旋等待时钟走到下一毫秒
+                    Thread.onSpinWait();
+                    continue;
+                }
+                // 同一毫秒或小幅回拨，沿用上一次的时间戳递增序列号
+                next = last + 1;
+            }
+            if (state.compareAndSet(last, next)) {
+                return SNOWFLAKE_FLAG
+                        | (next >>> SEQUENCE_BITS) << (WORKER_BITS + SEQUENCE_BITS)
+                        | workerId << SEQUENCE_BITS
+                        | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    /**
+     * 依次尝试 SETNX icr:worker:n token EX ttl，租用一个空闲的workerId并记录租约到期时间
+     */
+    private void leaseWorkerId() {
+        for (long id = 0; id <= MAX_WORKER_ID; id++) {
+            long start = System.nanoTime();
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(WORKER_KEY_PREFIX + id, token, WORKER_LEASE_TTL, TimeUnit.SECONDS);
+            if (Boolean.TRUE.equals(success)) {
+                // 先切换workerId再更新到期时间，通过检查的线程不会拿到已丢失的workerId
+                workerId = id;
+                leaseExpireNanos = start + TimeUnit.SECONDS.toNanos(WORKER_LEASE_TTL);
+                log.info("租用workerId成功，workerId={}", id);
+                return;
+            }
+        }
+        throw new IllegalStateException("没有可用的workerId");
+    }
+
+    private void renewLease() {
+        try {
+            long start = System.nanoTime();
+            Long renewed = stringRedisTemplate.execute(
+                    RENEW_SCRIPT,
+                    Collections.singletonList(WORKER_KEY_PREFIX + workerId),
+                    token, String.valueOf(WORKER_LEASE_TTL));
+            if (renewed == null || renewed == 0L) {
+                // 租约已丢失，立即停止发号并重新租用
+                leaseExpireNanos = System.nanoTime();
+                log.error("workerId租约丢失，重新租用，workerId={}", workerId);
+                leaseWorkerId();
+                return;
+            }
+            leaseExpireNanos = start + TimeUnit.SECONDS.toNanos(WORKER_LEASE_TTL);
+        } catch (Exception e) {
+            // 续期失败时，租约到期后nextId拒绝发号，直到Redis恢复后续期成功或者重新租用
+            log.error("workerId续期失败，workerId={}", workerId, e);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+-- 1.参数列表
+-- 1.1.收件箱/发件箱key KEYS[1]，每次只处理一个key，集群下不会跨slot
+local key = KEYS[1]
+-- 1.2.保留窗口的截止时间戳，更早的博文会被删除
+local deadline = ARGV[1]
+
+-- 2.裁剪并统计剩余博文数和内存占用
+redis.call('zremrangebyscore', key, 0, deadline)
+local entries = redis.call('zcard', key)
+-- key被裁剪为空后已经删除，MEMORY USAGE 返回nil
+local memory = redis.call('memory', 'usage', key) or 0
+return { entries, memory }
@@ -0,0 +1,16 @@
+-- 1 参数列表
+-- 1.1 热门博文排行榜 zset
+local hotKey = KEYS[1]
+-- 1.2 点赞数计数器 hash
+local countKey = KEYS[2]
+-- 1.3 ARGV：博文id, 数据库中的点赞数, 博文id, 数据库中的点赞数...
+
+-- 2 脚本业务：直接写入线上排行榜。计数器在脚本内读取，与like.lua互斥执行，
+-- 重建期间的点赞和新发布的博文都不会被旧数据覆盖
+for i = 1, #ARGV, 2 do
+    local blogId = ARGV[i]
+    -- 2.1 已经在Redis中计数的博文以计数器为准
+    local score = redis.call('hget', countKey, blogId) or ARGV[i + 1]
+    redis.call('zadd', hotKey, score, blogId)
+end
+return #ARGV / 2
@@ -0,0 +1,40 @@
+-- 1 参数列表
+-- 1.1 博文id
+local blogId = ARGV[1]
+-- 1.2 用户id
+local userId = ARGV[2]
+-- 1.3 当前时间戳
+local now = ARGV[3]
+
+-- 2 数据key
+-- 2.1 点赞用户key
+local likedKey = "blog:liked:" .. blogId
+-- 2.2 点赞数计数器 hash
+local countKey = "blog:liked:count"
+-- 2.3 待刷新到数据库的博文 zset，score为首次变更时间
+local dirtyKey = "blog:liked:dirty"
+-- 2.4 热门博文排行榜 zset，score为点赞数
+local hotKey = "blog:hot"
+
+-- 3 脚本业务
+-- 3.1 计数器未初始化，返回nil，由调用方从数据库加载后初始化
+if (redis.call('hexists', countKey, blogId) == 0) then
+    return nil
+end
+-- 3.2 判断是否已经点赞 ZSCORE likedKey userId
+local delta = 1
+if (redis.call('zscore', likedKey, userId)) then
+    -- 3.3 已点赞，取消点赞
+    redis.call('zrem', likedKey, userId)
+    delta = -1
+else
+    -- 3.4 未点赞，点赞 ZADD likedKey now userId
+    redis.call('zadd', likedKey, now, userId)
+end
+-- 3.5 更新点赞数
+local count = redis.call('hincrby', countKey, blogId, delta)
+-- 3.6 标记为待刷新，保留首次变更时间
+redis.call('zadd', dirtyKey, 'NX', now, blogId)
+-- 3.7 更新热门排行榜
+redis.call('zadd', hotKey, count, blogId)
+return count
@@ -0,0 +1,22 @@
+-- 1 参数列表
+-- 1.1 用户按月签到key sign:userId:yyyyMM
+local userKey = KEYS[1]
+-- 1.2 按天签到key sign:day:yyyyMMdd
+local dayKey = KEYS[2]
+-- 1.3 今天是本月的第几天（从0开始）
+local dayOffset = ARGV[1]
+-- 1.4 用户id，即按天位图中的偏移量
+local userId = ARGV[2]
+-- 1.5 按天位图的过期秒数
+local dayTtl = ARGV[3]
+
+-- 2 脚本业务
+-- 2.1 写入用户的月位图
+redis.call('setbit', userKey, dayOffset, 1)
+-- 2.2 写入当天的全员位图，返回之前是否已签到
+local signed = redis.call('setbit', dayKey, userId, 1)
+-- 2.3 按天位图首次创建时设置过期时间
+if (redis.call('ttl', dayKey) == -1) then
+    redis.call('expire', dayKey, dayTtl)
+end
+return signed
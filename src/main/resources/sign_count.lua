@@ -0,0 +1,22 @@
+-- 1 参数列表
+-- 1.1 临时key，BITOP的结果写入后在脚本内删除，不会残留
+local tmpKey = KEYS[1]
+-- 1.2 操作：or 统计 KEYS[2..n] 的并集人数；and 统计 KEYS[2] 分别与 KEYS[3..n] 的交集人数
+local op = ARGV[1]
+
+-- 2 脚本业务
+local counts = {}
+if (op == 'or') then
+    -- 2.1 BITOP OR tmpKey key2 ... keyN，BITCOUNT tmpKey
+    redis.call('bitop', 'or', tmpKey, unpack(KEYS, 2))
+    counts[1] = redis.call('bitcount', tmpKey)
+else
+    -- 2.2 首日人数，之后依次为 BITOP AND tmpKey key2 keyI 的人数
+    counts[1] = redis.call('bitcount', KEYS[2])
+    for i = 3, #KEYS do
+        redis.call('bitop', 'and', tmpKey, KEYS[2], KEYS[i])
+        counts[i - 1] = redis.call('bitcount', tmpKey)
+    end
+end
+redis.call('del', tmpKey)
+return counts
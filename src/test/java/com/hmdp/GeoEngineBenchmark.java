@@ -0,0 +1,107 @@
+package com.hmdp;
+
+import com.hmdp.utils.GeoGrid;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.domain.geo.GeoReference;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 附近商铺查询：Redis GEOSEARCH 与进程内 GeoGrid 的延迟对比，redis引擎需要可访问的Redis：
+ * mvn test-compile exec:java -Dexec.mainClass=com.hmdp.GeoEngineBenchmark -Dexec.classpathScope=test
+ * -Dredis.host=127.0.0.1 -Dredis.password=1234
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class GeoEngineBenchmark {
+
+    private static final String KEY = "bench:shop:geo";
+    private static final double CENTER_X = 120.15;
+    private static final double CENTER_Y = 30.28;
+    private static final double SPAN = 0.2;
+
+    @Param({"redis", "local"})
+    private String engine;
+
+    @Param({"10000"})
+    private int shops;
+
+    private LettuceConnectionFactory connectionFactory;
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private GeoGrid grid;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        long[] ids = new long[shops];
+        double[] xs = new double[shops];
+        double[] ys = new double[shops];
+        for (int i = 0; i < shops; i++) {
+            ids[i] = i + 1;
+            xs[i] = CENTER_X + (random.nextDouble() - 0.5) * SPAN;
+            ys[i] = CENTER_Y + (random.nextDouble() - 0.5) * SPAN;
+        }
+        if ("local".equals(engine)) {
+            grid = GeoGrid.build(ids, xs, ys, 0.01);
+            return;
+        }
+        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(
+                System.getProperty("redis.host", "127.0.0.1"), Integer.getInteger("redis.port", 6379));
+        config.setPassword(System.getProperty("redis.password", "1234"));
+        connectionFactory = new LettuceConnectionFactory(config);
+        connectionFactory.afterPropertiesSet();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        stringRedisTemplate.afterPropertiesSet();
+        stringRedisTemplate.delete(KEY);
+        List<RedisGeoCommands.GeoLocation<String>> locations = new ArrayList<>(shops);
+        for (int i = 0; i < shops; i++) {
+            locations.add(new RedisGeoCommands.GeoLocation<>(String.valueOf(ids[i]), new Point(xs[i], ys[i])));
+        }
+        stringRedisTemplate.opsForGeo().add(KEY, locations);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (connectionFactory != null) {
+            stringRedisTemplate.delete(KEY);
+            connectionFactory.destroy();
+        }
+    }
+
+    @Benchmark
+    public Object nearby() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double x = CENTER_X + (random.nextDouble() - 0.5) * SPAN / 2;
+        double y = CENTER_Y + (random.nextDouble() - 0.5) * SPAN / 2;
+        if (grid != null) {
+            return grid.search(x, y, 5000, 50);
+        }
+        return stringRedisTemplate.opsForGeo().search(KEY,
+                GeoReference.fromCoordinate(x, y),
+                new Distance(5000),
+                RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().sortAscending().limit(50));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(GeoEngineBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,73 @@
+package com.hmdp;
+
+import com.hmdp.utils.IdGenerator;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SnowflakeIdWorker;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RedisIdWorker 与 SnowflakeIdWorker 吞吐量对比，redis策略需要可访问的Redis：
+ * mvn test-compile exec:java -Dexec.mainClass=com.hmdp.IdGeneratorBenchmark -Dexec.classpathScope=test
+ * -Dredis.host=127.0.0.1 -Dredis.password=1234
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Threads(8)
+@Fork(1)
+public class IdGeneratorBenchmark {
+
+    /**
+     * redis-1：每个id一次INCR；redis-1000：号段模式；snowflake：本地雪花算法
+     */
+    @Param({"redis-1", "redis-1000", "snowflake"})
+    private String strategy;
+
+    private LettuceConnectionFactory connectionFactory;
+
+    private IdGenerator idGenerator;
+
+    @Setup
+    public void setup() {
+        if ("snowflake".equals(strategy)) {
+            idGenerator = new SnowflakeIdWorker(1L);
+            return;
+        }
+        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(
+                System.getProperty("redis.host", "127.0.0.1"), Integer.getInteger("redis.port", 6379));
+        config.setPassword(System.getProperty("redis.password", "1234"));
+        connectionFactory = new LettuceConnectionFactory(config);
+        connectionFactory.afterPropertiesSet();
+        RedisIdWorker redisIdWorker = new RedisIdWorker(new StringRedisTemplate(connectionFactory));
+        ReflectionTestUtils.setField(redisIdWorker, "segmentSize", Long.parseLong(strategy.substring(6)));
+        ReflectionTestUtils.setField(redisIdWorker, "prefetchRatio", 0.2);
+        idGenerator = redisIdWorker;
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+        }
+    }
+
+    @Benchmark
+    public long nextId() {
+        return idGenerator.nextId("bench");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(IdGeneratorBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,46 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.ZSetOperations;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FeedClientTest {
+
+    @Test
+    void mergeDeduplicatesAndOrdersByScoreThenNumericId() {
+        List<Object> results = Arrays.asList(
+                Arrays.asList(tuple("9", 2000), tuple("10", 2000), tuple("5", 1000)),
+                null,
+                Arrays.asList(tuple("10", 2000), tuple("11", 3000)));
+
+        List<ZSetOperations.TypedTuple<String>> sorted = FeedClient.merge(results);
+
+        // 时间戳相同的10和9按数值倒序，而不是字符串倒序
+        assertEquals(Arrays.asList("11", "10", "9", "5"), values(sorted));
+    }
+
+    @Test
+    void pageSkipsOffsetAndReturnsPartialTail() {
+        List<ZSetOperations.TypedTuple<String>> sorted = FeedClient.merge(List.of(
+                Arrays.asList(tuple("4", 4), tuple("3", 3), tuple("2", 2), tuple("1", 1))));
+
+        assertEquals(Arrays.asList("3", "2"), values(FeedClient.page(sorted, 1, 2)));
+        assertEquals(List.of("1"), values(FeedClient.page(sorted, 3, 2)));
+        assertTrue(FeedClient.page(sorted, 4, 2).isEmpty());
+        assertTrue(FeedClient.page(sorted, 10, 2).isEmpty());
+    }
+
+    private static ZSetOperations.TypedTuple<String> tuple(String value, double score) {
+        return new DefaultTypedTuple<>(value, score);
+    }
+
+    private static List<String> values(List<ZSetOperations.TypedTuple<String>> tuples) {
+        return tuples.stream().map(ZSetOperations.TypedTuple::getValue).toList();
+    }
+}
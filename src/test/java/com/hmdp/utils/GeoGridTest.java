@@ -0,0 +1,116 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GeoGridTest {
+
+    private static final double CELL_SIZE = 0.01;
+
+    @Test
+    void searchMatchesBruteForce() {
+        Random random = new Random(42);
+        int n = 2000;
+        long[] ids = new long[n];
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = i + 1;
+            xs[i] = 120 + random.nextDouble() * 0.2;
+            ys[i] = 30 + random.nextDouble() * 0.2;
+        }
+        GeoGrid grid = GeoGrid.build(ids, xs, ys, CELL_SIZE);
+
+        List<GeoGrid.Hit> hits = grid.search(120.1, 30.1, 3000, 20);
+
+        assertHitsEqual(bruteForce(ids, xs, ys, 120.1, 30.1, 3000, 20), hits);
+        for (int i = 1; i < hits.size(); i++) {
+            assertTrue(hits.get(i - 1).getDistance() <= hits.get(i).getDistance());
+        }
+    }
+
+    @Test
+    void searchFindsPointsAcrossTheAntimeridian() {
+        long[] ids = {1, 2, 3};
+        double[] xs = {179.999, -179.999, -179.99};
+        double[] ys = {10, 10, 10};
+        GeoGrid grid = GeoGrid.build(ids, xs, ys, CELL_SIZE);
+
+        // 179.999 与 -179.999 相距约220米，与 -179.99 相距约1.2公里
+        List<GeoGrid.Hit> east = grid.search(179.999, 10, 500, 10);
+        List<GeoGrid.Hit> west = grid.search(-179.999, 10, 2000, 10);
+
+        assertHitsEqual(bruteForce(ids, xs, ys, 179.999, 10, 500, 10), east);
+        assertEquals(2, east.size());
+        assertHitsEqual(bruteForce(ids, xs, ys, -179.999, 10, 2000, 10), west);
+        assertEquals(3, west.size());
+    }
+
+    @Test
+    void searchNearTheLatitudeLimitIsBoundedAndCorrect() {
+        long[] ids = {1, 2, 3, 4};
+        double[] xs = {0, 0.5, 90, -170};
+        double[] ys = {85, 85.02, 85, 85};
+        GeoGrid grid = GeoGrid.build(ids, xs, ys, CELL_SIZE);
+
+        List<GeoGrid.Hit> hits = grid.search(0.2, 85.05, 6000, 10);
+
+        assertHitsEqual(bruteForce(ids, xs, ys, 0.2, 85.05, 6000, 10), hits);
+        assertEquals(2, hits.size());
+    }
+
+    @Test
+    void hugeRadiusCoversTheWholeIndex() {
+        long[] ids = {1, 2, 3};
+        double[] xs = {0, 179, -120};
+        double[] ys = {0, 80, -80};
+        GeoGrid grid = GeoGrid.build(ids, xs, ys, CELL_SIZE);
+
+        List<GeoGrid.Hit> hits = grid.search(0, 0, 30_000_000, 10);
+
+        assertEquals(3, hits.size());
+        assertEquals(1L, hits.get(0).getId());
+    }
+
+    @Test
+    void rejectsCoordinatesOutsideRedisGeoRange() {
+        long[] ids = {1, 2};
+        double[] xs = {0, 0};
+        double[] ys = {0, 89.9};
+        GeoGrid grid = GeoGrid.build(ids, xs, ys, CELL_SIZE);
+
+        // 超出范围的点不会被索引
+        assertEquals(1, grid.size());
+        assertThrows(IllegalArgumentException.class, () -> grid.search(0, 89.9, 5000, 10));
+        assertThrows(IllegalArgumentException.class, () -> grid.search(180.5, 0, 5000, 10));
+    }
+
+    private static List<GeoGrid.Hit> bruteForce(long[] ids, double[] xs, double[] ys,
+                                                double x, double y, double radius, int limit) {
+        List<GeoGrid.Hit> hits = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            double distance = GeoUtils.distance(x, y, xs[i], ys[i]);
+            if (distance <= radius) {
+                hits.add(new GeoGrid.Hit(ids[i], distance));
+            }
+        }
+        hits.sort(Comparator.comparingDouble(GeoGrid.Hit::getDistance));
+        return hits.subList(0, Math.min(limit, hits.size()));
+    }
+
+    private static void assertHitsEqual(List<GeoGrid.Hit> expected, List<GeoGrid.Hit> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getId(), actual.get(i).getId());
+            assertEquals(expected.get(i).getDistance(), actual.get(i).getDistance(), 1e-3);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
+import com.hmdp.dto.SliceResult;
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PageUtilsTest {
+
+    private QueryChainWrapper<Shop> query;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        // 链式调用返回自身；one()的返回类型擦除后是Object，也会返回自身，需要用doReturn打桩
+        query = mock(QueryChainWrapper.class, RETURNS_SELF);
+    }
+
+    @Test
+    void sliceFirstPageQueriesDirectly() {
+        when(query.list()).thenReturn(shops(1, 2, 3));
+
+        SliceResult page = PageUtils.slice(() -> query, 1, 2, Shop::getId);
+
+        assertEquals(Arrays.asList(1L, 2L), ids(page.getList()));
+        assertTrue(page.getHasMore());
+        assertEquals(2L, page.getLastId());
+        // 多查一条判断是否还有下一页
+        verify(query).last("LIMIT 3");
+        verify(query, never()).one();
+    }
+
+    @Test
+    void sliceLaterPageSeeksFromFirstId() {
+        doReturn(shop(7)).when(query).one();
+        when(query.list()).thenReturn(shops(7, 8));
+
+        SliceResult page = PageUtils.slice(() -> query, 3, 2, Shop::getId);
+
+        assertEquals(Arrays.asList(7L, 8L), ids(page.getList()));
+        assertFalse(page.getHasMore());
+        // 先只查id定位本页第一条，再从该id向后取一页
+        verify(query).select("id");
+        verify(query).last("LIMIT 4, 1");
+        verify(query).ge("id", 7L);
+        verify(query).last("LIMIT 3");
+    }
+
+    @Test
+    void sliceBeyondLastPageIsEmpty() {
+        doReturn(null).when(query).one();
+
+        SliceResult page = PageUtils.slice(() -> query, 5, 2, Shop::getId);
+
+        assertTrue(page.getList().isEmpty());
+        assertFalse(page.getHasMore());
+        verify(query, never()).list();
+    }
+
+    @Test
+    void seekFetchesOneExtraToDetectNextPage() {
+        when(query.list()).thenReturn(shops(11, 12, 13));
+
+        SliceResult result = PageUtils.seek(query, 10L, 2, Shop::getId);
+
+        verify(query).gt(true, "id", 10L);
+        verify(query).last("LIMIT 3");
+        assertEquals(Arrays.asList(11L, 12L), ids(result.getList()));
+        assertTrue(result.getHasMore());
+        assertEquals(12L, result.getLastId());
+    }
+
+    @Test
+    void seekLastPage() {
+        when(query.list()).thenReturn(shops(11, 12));
+
+        SliceResult result = PageUtils.seek(query, null, 2, Shop::getId);
+
+        verify(query).gt(false, "id", null);
+        assertEquals(Arrays.asList(11L, 12L), ids(result.getList()));
+        assertFalse(result.getHasMore());
+        assertEquals(12L, result.getLastId());
+    }
+
+    @Test
+    void seekPastEndKeepsLastId() {
+        when(query.list()).thenReturn(Collections.emptyList());
+
+        SliceResult result = PageUtils.seek(query, 20L, 2, Shop::getId);
+
+        assertTrue(result.getList().isEmpty());
+        assertFalse(result.getHasMore());
+        assertEquals(20L, result.getLastId());
+    }
+
+    private static Shop shop(long id) {
+        Shop shop = new Shop();
+        shop.setId(id);
+        return shop;
+    }
+
+    private static List<Shop> shops(long... ids) {
+        return LongStream.of(ids).mapToObj(PageUtilsTest::shop).collect(Collectors.toList());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Long> ids(List<?> list) {
+        return ((List<Shop>) list).stream().map(Shop::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,67 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ShopNameIndexTest {
+
+    @Test
+    void searchRanksExactThenPrefixThenShorterThenId() {
+        ShopNameIndex index = new ShopNameIndex();
+        index.put(1L, "星巴克咖啡");
+        index.put(2L, "好咖啡店");
+        index.put(3L, "咖啡馆");
+        index.put(4L, "咖啡");
+        index.put(5L, "茶咖啡店");
+        index.put(6L, "奶茶");
+
+        assertEquals(Arrays.asList(4L, 3L, 2L, 5L, 1L), index.search("咖啡", 1, 10));
+    }
+
+    @Test
+    void searchRejectsBigramsThatAreNotContiguous() {
+        ShopNameIndex index = new ShopNameIndex();
+        // 包含 ab 和 ba 两个bigram，但不包含 aba
+        index.put(1L, "abxba");
+        index.put(2L, "xabab");
+
+        assertEquals(Collections.singletonList(2L), index.search("aba", 1, 10));
+    }
+
+    @Test
+    void searchIsCaseInsensitiveAndSupportsSingleChar() {
+        ShopNameIndex index = new ShopNameIndex();
+        index.put(1L, "KFC肯德基");
+        index.put(2L, "德克士");
+
+        assertEquals(Collections.singletonList(1L), index.search(" kfc ", 1, 10));
+        assertEquals(Arrays.asList(2L, 1L), index.search("德", 1, 10));
+        assertEquals(Collections.emptyList(), index.search("  ", 1, 10));
+    }
+
+    @Test
+    void putReplacesOldName() {
+        ShopNameIndex index = new ShopNameIndex();
+        index.put(1L, "老字号面馆");
+        index.put(1L, "新派火锅");
+
+        assertEquals(Collections.emptyList(), index.search("面馆", 1, 10));
+        assertEquals(Collections.singletonList(1L), index.search("火锅", 1, 10));
+    }
+
+    @Test
+    void searchPages() {
+        ShopNameIndex index = new ShopNameIndex();
+        for (long id = 1; id <= 5; id++) {
+            index.put(id, "火锅" + id);
+        }
+
+        assertEquals(Arrays.asList(1L, 2L), index.search("火锅", 1, 2));
+        assertEquals(Collections.singletonList(5L), index.search("火锅", 3, 2));
+        assertEquals(Collections.emptyList(), index.search("火锅", 4, 2));
+    }
+}
@@ -0,0 +1,183 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.SignDayExport;
+import com.hmdp.dto.SignStats;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.hmdp.utils.RedisConstants.USER_SIGN_KEY;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SignClientTest {
+
+    private static final long USER_ID = 1L;
+
+    /**
+     * key -> Redis中的位图
+     */
+    private final Map<String, byte[]> bitmaps = new HashMap<>();
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private SignClient signClient;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        // pipeline中按顺序记录GET的key，返回对应的位图
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        when(stringRedisTemplate.executePipelined(any(RedisCallback.class), any(RedisSerializer.class)))
+                .thenAnswer(invocation -> {
+                    List<Object> results = new ArrayList<>();
+                    RedisConnection connection = mock(RedisConnection.class);
+                    RedisStringCommands stringCommands = mock(RedisStringCommands.class);
+                    when(connection.stringCommands()).thenReturn(stringCommands);
+                    when(stringCommands.get(any(byte[].class))).thenAnswer(get -> {
+                        results.add(bitmaps.get(new String((byte[]) get.getArgument(0), StandardCharsets.UTF_8)));
+                        return null;
+                    });
+                    ((RedisCallback<Object>) invocation.getArgument(0)).doInRedis(connection);
+                    return results;
+                });
+        signClient = new SignClient();
+        ReflectionTestUtils.setField(signClient, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(signClient, "maxMonths", 12);
+    }
+
+    @Test
+    void toMaskReversesRedisBitOrder() {
+        // 第0位是第一个字节的最高位：1号、8号、9号、31号
+        byte[] bitmap = {(byte) 0b1000_0001, (byte) 0b1000_0000, 0, 0b0000_0010};
+
+        assertEquals(Arrays.asList(1, 8, 9, 31), days(SignClient.toMask(bitmap, 31)));
+        // 超出当月天数的位被去掉
+        assertEquals(Arrays.asList(1, 8, 9), days(SignClient.toMask(bitmap, 30)));
+        assertEquals(0L, SignClient.toMask(null, 31));
+    }
+
+    @Test
+    void rangeMaskCoversInclusiveDays() {
+        assertEquals(0b1110L, SignClient.rangeMask(2, 4));
+        assertEquals(0x7FFF_FFFFL, SignClient.rangeMask(1, 31));
+        assertEquals(1L << 30, SignClient.rangeMask(31, 31));
+    }
+
+    @Test
+    void longestRunAndTailRun() {
+        long mask = mask(1, 2, 5, 6, 7, 10, 30, 31);
+
+        assertEquals(3, SignClient.longestRun(mask));
+        assertEquals(0, SignClient.longestRun(0L));
+        assertEquals(31, SignClient.longestRun(mask(range(1, 31))));
+        assertEquals(2, SignClient.tailRun(mask, 31));
+        assertEquals(0, SignClient.tailRun(mask, 29));
+        assertEquals(3, SignClient.tailRun(mask, 7));
+        assertEquals(31, SignClient.tailRun(mask(range(1, 31)), 31));
+    }
+
+    @Test
+    void statsCarriesStreakAcrossMonths() {
+        sign("202401", 3, 30, 31);
+        sign("202402", range(1, 29));
+        sign("202403", 1, 5);
+
+        SignStats stats = signClient.stats(USER_ID, LocalDate.of(2024, 1, 1), LocalDate.of(2024, 3, 31));
+
+        // 1月30日到3月1日连续32天
+        assertEquals(32, stats.getLongestStreak());
+        assertEquals(34, stats.getTotalDays());
+        assertEquals(3, stats.getMonths().size());
+        assertEquals(Arrays.asList(3, 30, 31), stats.getMonths().get(0).getDays());
+    }
+
+    @Test
+    void statsIgnoresDaysOutsideRange() {
+        sign("202401", 30, 31);
+        sign("202402", range(1, 29));
+        sign("202403", 1, 2);
+
+        SignStats stats = signClient.stats(USER_ID, LocalDate.of(2024, 1, 31), LocalDate.of(2024, 3, 1));
+
+        assertEquals(31, stats.getLongestStreak());
+        assertEquals(31, stats.getTotalDays());
+    }
+
+    @Test
+    void exportSparseDayAsRawBitmap() {
+        // 10万用户中随机20%签到，几乎所有签到用户都不相邻
+        Random random = new Random(42);
+        byte[] bitmap = new byte[100_000 / 8];
+        long count = 0;
+        for (int userId = 0; userId < 100_000; userId++) {
+            if (random.nextInt(5) == 0) {
+                bitmap[userId / 8] |= (byte) (0x80 >>> (userId % 8));
+                count++;
+            }
+        }
+        when(stringRedisTemplate.execute(any(RedisCallback.class))).thenReturn(bitmap);
+
+        SignDayExport export = signClient.export(LocalDate.of(2024, 3, 1));
+
+        assertEquals(count, export.getCount());
+        assertArrayEquals(bitmap, Base64.getDecoder().decode(export.getBitmap()));
+        // base64后每个用户约1.33位，与用户是否相邻无关
+        int size = JSONUtil.toJsonStr(export).length();
+        assertTrue(size < bitmap.length * 4 / 3 + 100, "export size " + size);
+    }
+
+    private void sign(String month, int... days) {
+        byte[] bitmap = new byte[4];
+        for (int day : days) {
+            bitmap[(day - 1) / 8] |= (byte) (0x80 >>> ((day - 1) % 8));
+        }
+        bitmaps.put(USER_SIGN_KEY + USER_ID + ":" + month, bitmap);
+    }
+
+    private static int[] range(int first, int last) {
+        int[] days = new int[last - first + 1];
+        for (int i = 0; i < days.length; i++) {
+            days[i] = first + i;
+        }
+        return days;
+    }
+
+    private static long mask(int... days) {
+        long mask = 0L;
+        for (int day : days) {
+            mask |= 1L << (day - 1);
+        }
+        return mask;
+    }
+
+    private static List<Integer> days(long mask) {
+        List<Integer> days = new ArrayList<>();
+        for (int i = 0; i < Long.SIZE; i++) {
+            if ((mask & (1L << i)) != 0) {
+                days.add(i + 1);
+            }
+        }
+        return days;
+    }
+}
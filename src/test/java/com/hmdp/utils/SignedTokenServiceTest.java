@@ -0,0 +1,134 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import com.hmdp.dto.UserDTO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_REVOKED_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SignedTokenServiceTest {
+
+    private StringRedisTemplate stringRedisTemplate;
+    private ZSetOperations<String, String> zSetOperations;
+    private SignedTokenService service;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        zSetOperations = mock(ZSetOperations.class);
+        when(stringRedisTemplate.opsForZSet()).thenReturn(zSetOperations);
+        when(zSetOperations.range(LOGIN_REVOKED_KEY, 0, -1)).thenReturn(Collections.emptySet());
+        service = new SignedTokenService();
+        ReflectionTestUtils.setField(service, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(service, "redisMessageListenerContainer", mock(RedisMessageListenerContainer.class));
+        ReflectionTestUtils.setField(service, "tokenMode", "signed");
+        ReflectionTestUtils.setField(service, "tokenSecret", "test-secret");
+        ReflectionTestUtils.setField(service, "revokedExpected", 1000L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(service, "destroy");
+    }
+
+    @Test
+    void verifyReturnsIssuedUser() {
+        ReflectionTestUtils.invokeMethod(service, "init");
+
+        UserDTO user = service.verify(service.issue(user()));
+
+        assertNotNull(user);
+        assertEquals(1L, user.getId());
+        assertEquals("小鱼", user.getNickName());
+        assertEquals("/imgs/icon.jpg", user.getIcon());
+        // 过滤器就绪后，未吊销的token不访问Redis
+        verify(zSetOperations, never()).score(eq(LOGIN_REVOKED_KEY), anyString());
+    }
+
+    @Test
+    void verifyRejectsTamperedToken() {
+        ReflectionTestUtils.invokeMethod(service, "init");
+        String token = service.issue(user());
+        int dot = token.indexOf('.');
+        JSONObject claims = new JSONObject(new String(
+                Base64.getUrlDecoder().decode(token.substring(0, dot)), StandardCharsets.UTF_8));
+        claims.set("id", 2L);
+        String forged = encode(claims) + token.substring(dot);
+
+        assertNull(service.verify(forged));
+        assertNull(service.verify(token.substring(0, dot) + ".AAAA"));
+        assertNull(service.verify(token.substring(0, dot)));
+        assertNull(service.verify("." + token.substring(dot + 1)));
+    }
+
+    @Test
+    void verifyRejectsExpiredToken() {
+        ReflectionTestUtils.invokeMethod(service, "init");
+        JSONObject claims = new JSONObject();
+        claims.set("id", 1L);
+        claims.set("exp", System.currentTimeMillis() / 1000 - 1);
+        claims.set("jti", "expired");
+        String payload = encode(claims);
+        String signature = ReflectionTestUtils.invokeMethod(service, "sign", payload);
+
+        assertNull(service.verify(payload + "." + signature));
+    }
+
+    @Test
+    void verifyRejectsRevokedToken() {
+        ReflectionTestUtils.invokeMethod(service, "init");
+        String token = service.issue(user());
+        when(zSetOperations.score(eq(LOGIN_REVOKED_KEY), anyString())).thenReturn(1.0);
+
+        assertTrue(service.revoke(token));
+
+        verify(zSetOperations).add(eq(LOGIN_REVOKED_KEY), anyString(), anyDouble());
+        assertNull(service.verify(token));
+    }
+
+    @Test
+    void verifyQueriesRedisUntilFilterIsRebuilt() {
+        when(zSetOperations.removeRangeByScore(eq(LOGIN_REVOKED_KEY), anyDouble(), anyDouble()))
+                .thenThrow(new IllegalStateException("redis down"));
+        when(zSetOperations.score(eq(LOGIN_REVOKED_KEY), anyString())).thenReturn(1.0);
+        ReflectionTestUtils.invokeMethod(service, "init");
+
+        // 首次重建失败，本地过滤器为空，被吊销的token仍然要由Redis拒绝
+        assertNull(service.verify(service.issue(user())));
+    }
+
+    private static UserDTO user() {
+        UserDTO user = new UserDTO();
+        user.setId(1L);
+        user.setNickName("小鱼");
+        user.setIcon("/imgs/icon.jpg");
+        return user;
+    }
+
+    private static String encode(JSONObject claims) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(claims.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,32 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SnowflakeIdWorkerTest {
+
+    @Test
+    void idsIncreaseAndCarryWorkerId() {
+        SnowflakeIdWorker worker = new SnowflakeIdWorker(5L);
+        long previous = 0;
+        for (int i = 0; i < 10_000; i++) {
+            long id = worker.nextId("order");
+            assertTrue(id > previous);
+            assertEquals(5L, (id >>> 12) & 0x3FF);
+            previous = id;
+        }
+    }
+
+    @Test
+    void idsStayAboveRedisIdWorkerRange() {
+        // RedisIdWorker：(秒 - 2025-01-01) << 32 | 序列号，取当前秒内可能的最大值
+        long redisMax = (System.currentTimeMillis() / 1000 - 1735660800L) << 32 | 0xFFFFFFFFL;
+        long id = new SnowflakeIdWorker(0L).nextId("order");
+
+        assertTrue(id > 0);
+        assertTrue(id >= 1L << 62);
+        assertTrue(id > redisMax);
+    }
+}